@@ -0,0 +1,35 @@
+import benchmark.Workload;
+
+import java.nio.ByteBuffer;
+
+/**decode a heartbeat carrying EncodeWorkload.UPDATES piggybacked updates, what ListeningThread.run does per datagram
+ */
+public class DecodeWorkload implements Workload {
+    private final MessageCodec codec = new MessageCodec();
+    private ByteBuffer message;
+
+    @Override
+    public void setUp(int size) {
+        MessageCodec sendCodec = new MessageCodec();
+        sendCodec.begin(MessageCodec.TYPE_HEARTBEAT, Workloads.member(0), Action.HEARTBEAT, 42, 0, 0);
+        for (int i = 0; i < EncodeWorkload.UPDATES; i++) {
+            sendCodec.putUpdate(Workloads.member(i + 1), Action.ADD, 42, 0, Protocol.GOSSIP_TTL);
+        }
+        ByteBuffer encoded = sendCodec.finish();
+        message = ByteBuffer.allocate(encoded.remaining());
+        message.put(encoded);
+    }
+
+    @Override
+    public long run() {
+        message.clear();
+        if (!codec.decode(message)) {
+            throw new IllegalStateException("malformed message");
+        }
+        long sum = codec.counter;
+        while (codec.hasNextUpdate() && codec.nextUpdate(message)) {
+            sum += codec.counter;
+        }
+        return sum;
+    }
+}
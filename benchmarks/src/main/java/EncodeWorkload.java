@@ -0,0 +1,30 @@
+import benchmark.Workload;
+
+/**encode a heartbeat carrying UPDATES piggybacked updates, what Protocol.sendHeartBeat does per heartbeat
+ */
+public class EncodeWorkload implements Workload {
+    static final int UPDATES = 8;
+
+    private final MessageCodec codec = new MessageCodec();
+    private NodeId self;
+    private NodeId[] updated;
+    private long counter;
+
+    @Override
+    public void setUp(int size) {
+        self = Workloads.member(0);
+        updated = new NodeId[UPDATES];
+        for (int i = 0; i < UPDATES; i++) {
+            updated[i] = Workloads.member(i + 1);
+        }
+    }
+
+    @Override
+    public long run() {
+        codec.begin(MessageCodec.TYPE_HEARTBEAT, self, Action.HEARTBEAT, ++counter, 0, 0);
+        for (NodeId ID : updated) {
+            codec.putUpdate(ID, Action.ADD, counter, 0, Protocol.GOSSIP_TTL);
+        }
+        return codec.finish().remaining();
+    }
+}
@@ -0,0 +1,29 @@
+import benchmark.Workload;
+
+/**look up the owners of a key on a HashRing built from the membership list, 100 points per member.
+ * the keys are made once, so the cost is the key hash, the binary search and the walk
+ */
+public class HashRingLookupWorkload implements Workload {
+    private static final int KEYS = 1024;
+    private static final int REPLICAS = 3;
+
+    private final HashRing ring = new HashRing(100);
+    private final String[] keys = new String[KEYS];
+    private final NodeId[] owners = new NodeId[REPLICAS];
+    private int next;
+
+    @Override
+    public void setUp(int size) {
+        Workloads.membership(size);
+        ring.update(Daemon.membership.snapshot());
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key-" + i;
+        }
+    }
+
+    @Override
+    public long run() {
+        int count = ring.ownersOf(keys[next++ & (KEYS - 1)], REPLICAS, owners);
+        return count + owners[0].port;
+    }
+}
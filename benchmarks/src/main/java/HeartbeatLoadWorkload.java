@@ -0,0 +1,31 @@
+import benchmark.Workload;
+
+/**receive a heartbeat from each member in turn through ListeningThread.handleMessage,
+ * which decodes it and applies it with updateMembershipList.
+ * counters only grow, so every heartbeat is an update, never stale. the heartbeat is encoded
+ * in the measured call, which DecodeWorkload and EncodeWorkload measure on their own
+ */
+public class HeartbeatLoadWorkload implements Workload {
+    private final MessageCodec sendCodec = new MessageCodec();
+    private final MessageCodec receiveCodec = new MessageCodec();
+    private final Workloads.CountingTransport transport = new Workloads.CountingTransport();
+    private NodeId[] members;
+    private int next;
+    private long counter = 1;
+
+    @Override
+    public void setUp(int size) {
+        members = Workloads.membership(Math.max(size, 2));
+    }
+
+    @Override
+    public long run() {
+        if (++next == members.length) {
+            next = 1;
+        }
+        NodeId sender = members[next];
+        ListeningThread.handleMessage(receiveCodec, sendCodec.encodeHeartBeat(sender, ++counter, 0),
+                sender.socketAddress(), transport);
+        return counter;
+    }
+}
@@ -0,0 +1,23 @@
+import benchmark.Workload;
+
+/**remove the successor of this node and add it back, every change moves the neighbour window
+ * and publishes a new snapshot, what a failure and a rejoin next to this node cost
+ */
+public class NeighbourUpdateWorkload implements Workload {
+    private NodeId successor;
+    private long counter = 1;
+    private long incarnation;
+
+    @Override
+    public void setUp(int size) {
+        successor = Workloads.membership(Math.max(size, 2))[1];
+    }
+
+    @Override
+    public long run() {
+        Daemon.membership.remove(successor, counter, incarnation);
+        //the tombstone keeps the incarnation, the member comes back above it
+        Daemon.membership.add(successor, ++counter, ++incarnation, System.currentTimeMillis());
+        return Daemon.membership.snapshot().version;
+    }
+}
@@ -0,0 +1,20 @@
+import benchmark.Workload;
+
+/**send a gossip through Protocol.sendGossip, which picks GOSSIP_FANOUT random members,
+ * to a transport that only counts, so the cost is the encoding and the target selection
+ */
+public class TargetSelectionWorkload implements Workload {
+    private final Workloads.CountingTransport transport = new Workloads.CountingTransport();
+    private NodeId[] members;
+
+    @Override
+    public void setUp(int size) {
+        members = Workloads.membership(Math.max(size, 2));
+    }
+
+    @Override
+    public long run() {
+        Protocol.sendGossip(members[1], Action.ADD, 1, 0, Protocol.GOSSIP_TTL, Protocol.GOSSIP_FANOUT, transport);
+        return transport.sent;
+    }
+}
@@ -0,0 +1,48 @@
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**shared set up of the benchmark workloads
+ * members are stamped one millisecond apart on addresses 10.0.0.0/8, so the ring order is the creation order
+ */
+final class Workloads {
+    //a transport that only counts, so sending costs nothing but the call
+    static final class CountingTransport implements Transport {
+        long sent;
+
+        @Override
+        public void send(ByteBuffer message, InetSocketAddress target) {
+            sent++;
+        }
+    }
+
+    private Workloads() {
+    }
+
+    /**
+     * @return the ID of the i-th member
+     */
+    static NodeId member(int i) {
+        return NodeId.of(1500000000L + i / 1000, (i % 1000) * 1000000, 0x0A000001 + i, 10100);
+    }
+
+    /**
+     * reset the static state of Daemon to a node that knows size members, itself being the first
+     * @return the member IDs
+     */
+    static NodeId[] membership(int size) {
+        NodeId[] IDs = new NodeId[size];
+        long[] counters = new long[size];
+        for (int i = 0; i < size; i++) {
+            IDs[i] = member(i);
+            counters[i] = 1;
+        }
+        Daemon.ID = IDs[0];
+        Daemon.membership = new MembershipStore(Daemon.ID, 1);
+        Daemon.membership.addAll(IDs, counters, new long[size], System.currentTimeMillis());
+        Daemon.updates = new UpdateBuffer();
+        Daemon.suspicion = new Suspicion(3000, 4, 900);
+        Daemon.swim = null;
+        Daemon.phi = null;
+        return IDs;
+    }
+}
@@ -0,0 +1,42 @@
+import benchmark.Workload;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**log a received heartbeat through Daemon.writeLog into an event log that writes nowhere,
+ * every event is kept, no sampling. when the writer falls behind events are dropped and counted
+ */
+public class WriteLogWorkload implements Workload {
+    private NodeId member;
+
+    @Override
+    public void setUp(int size) {
+        member = Workloads.membership(Math.max(size, 2))[1];
+        Writer nowhere = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Daemon.eventLog = new EventLog(new PrintWriter(nowhere), 8192, EventLog.Level.PASS, 1);
+    }
+
+    @Override
+    public long run() {
+        Daemon.writeLog("HEARTBEAT NEIGHBOR", member);
+        return 1;
+    }
+
+    @Override
+    public void tearDown() {
+        Daemon.eventLog.close();
+        Daemon.eventLog = null;
+    }
+}
@@ -0,0 +1,44 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**message encode and decode, the per-datagram cost of sending and of ListeningThread.run
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private Workload encode;
+    private Workload decode;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        encode = Workload.create("EncodeWorkload", 0);
+        decode = Workload.create("DecodeWorkload", 0);
+    }
+
+    @Benchmark
+    public long encodeHeartbeat() {
+        return encode.run();
+    }
+
+    @Benchmark
+    public long decodeHeartbeat() {
+        return decode.run();
+    }
+}
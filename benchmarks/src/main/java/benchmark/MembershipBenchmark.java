@@ -0,0 +1,93 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**membership operations at different cluster sizes:
+ * heartbeats applied through ListeningThread.handleMessage, neighbour updates on membership
+ * changes, the target selection of Protocol.sendGossip and key lookups on the HashRing
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MembershipBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    @Benchmark
+    public long heartbeatLoad(HeartbeatLoad state) {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public long neighbourUpdate(NeighbourUpdate state) {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public long targetSelection(TargetSelection state) {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public long hashRingLookup(HashRingLookup state) {
+        return state.workload.run();
+    }
+
+    //one state per benchmark, each sets up the static daemon state for its own trial
+
+    @State(Scope.Thread)
+    public static class HeartbeatLoad {
+        Workload workload;
+
+        @Setup(Level.Trial)
+        public void setUp(MembershipBenchmark benchmark) {
+            workload = Workload.create("HeartbeatLoadWorkload", benchmark.size);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class NeighbourUpdate {
+        Workload workload;
+
+        @Setup(Level.Trial)
+        public void setUp(MembershipBenchmark benchmark) {
+            workload = Workload.create("NeighbourUpdateWorkload", benchmark.size);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TargetSelection {
+        Workload workload;
+
+        @Setup(Level.Trial)
+        public void setUp(MembershipBenchmark benchmark) {
+            workload = Workload.create("TargetSelectionWorkload", benchmark.size);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class HashRingLookup {
+        Workload workload;
+
+        @Setup(Level.Trial)
+        public void setUp(MembershipBenchmark benchmark) {
+            workload = Workload.create("HashRingLookupWorkload", benchmark.size);
+        }
+    }
+}
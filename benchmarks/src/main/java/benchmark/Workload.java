@@ -0,0 +1,42 @@
+package benchmark;
+
+/**one measured operation on the daemon classes
+ * the daemon classes are in the unnamed package. JMH refuses benchmarks there, and a named package
+ * can't import from it, so each operation is implemented by an unnamed package class behind this
+ * interface and created by name once per trial. the measured call is a plain interface call.
+ */
+public interface Workload {
+    /**
+     * prepare the daemon state, called once per trial
+     * @param size number of members in the membership list
+     */
+    void setUp(int size);
+
+    /**
+     * run the operation once
+     * @return a value depending on the result, consumed so the work isn't optimized away
+     */
+    long run();
+
+    /**
+     * release what setUp created, called once per trial
+     */
+    default void tearDown() {
+    }
+
+    /**
+     * create and set up a workload
+     * @param className name of the workload class in the unnamed package
+     * @param size number of members in the membership list
+     * @return the workload
+     */
+    static Workload create(String className, int size) {
+        try {
+            Workload workload = (Workload) Class.forName(className).getDeclaredConstructor().newInstance();
+            workload.setUp(size);
+            return workload;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("no workload " + className, e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+/**actions carried by heartbeat and gossip messages
+ * the ordinal is written on the wire, so only append new actions at the end
+ */
+public enum Action {
+    HEARTBEAT,
+    ADD,
+    LEAVE,
+    REMOVE,
+    //the member missed its heartbeats or probes, it is removed unless it refutes with a higher incarnation
+    SUSPECT;
+
+    private static final Action[] VALUES = values();
+
+    /**
+     * @param code action code read from the wire
+     * @return the action, or null if the code is unknown
+     */
+    static Action fromCode(int code) {
+        return code >= 0 && code < VALUES.length ? VALUES[code] : null;
+    }
+}
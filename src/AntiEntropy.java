@@ -0,0 +1,197 @@
+import java.util.Map;
+
+/**push-pull anti-entropy, repairs the membership updates gossip never delivered
+ * every syncInterval ms (configuration file, 0 turns it off) a node sends the digest of its membership
+ * list to a random member. the digest splits the members into BUCKETS buckets by ID hash and holds the
+ * XOR of a 32-bit fingerprint of the ID, incarnation and status of every member of a bucket, so it fits
+ * one datagram for any group size and tells which buckets differ, not what differs in them.
+ * the receiver answers only if a bucket differs: it sends its own digest back and the entries of the
+ * differing buckets, the originator then sends its entries of the differing buckets too. so two nodes
+ * that agree exchange one digest per interval, and two nodes that don't exchange only the buckets
+ * they disagree on.
+ * an entry is a member with its counter and incarnation (ADD, SUSPECT for a suspect member) or a
+ * member removed within MembershipStore.TOMBSTONE_TIMEOUT with the counter and incarnation it was
+ * removed with (REMOVE):
+ * ADD     : an unknown node is added unless this node removed it with the same or a higher incarnation,
+ *           a known member with a lower incarnation takes the higher one, it refuted
+ * SUSPECT : same as ADD, then a member known with a lower incarnation becomes suspect. a suspicion with
+ *           the known incarnation is left to the failure detector of this node
+ * REMOVE  : a member is removed only if the removal is newer than the member: a higher incarnation, or
+ *           the same one with a higher counter or while this node suspects it too. a removal with the
+ *           known incarnation and counter is the stale view of a node that missed the refutation
+ * this node refutes a suspicion or removal of itself to the sender, see Suspicion.
+ * repairs are applied locally only, they are not gossiped.
+ */
+public class AntiEntropy {
+    //num of buckets of the digest, a power of two
+    static final int BUCKETS = 128;
+    private static final int BUCKET_SHIFT = 32 - Integer.numberOfTrailingZeros(BUCKETS);
+
+    //interval between two syncs
+    private final long interval;
+    //transport syncs are sent with, set by start
+    private Transport transport;
+
+    //digest of the snapshot with digestVersion and the state with digestStateChanges, replaced, never modified
+    private int[] digest;
+    private long digestVersion = -1;
+    private long digestStateChanges = -1;
+
+    /**
+     * constructor
+     * @param interval interval between two syncs
+     */
+    AntiEntropy(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * start syncing, one sync every interval on Daemon.timers
+     * @param transport transport used to send the digests
+     */
+    void start(Transport transport) {
+        this.transport = transport;
+        Daemon.timers.scheduleAtFixedRate(this::sync, interval, interval);
+    }
+
+    /**
+     * send the digest to a random member
+     */
+    private void sync() {
+        MembershipStore.Snapshot snapshot = Daemon.membership.snapshot();
+        if (snapshot.IDs.length < 2) {
+            return;
+        }
+        NodeId target;
+        do {
+            target = snapshot.IDs[Daemon.random.nextInt(snapshot.IDs.length)];
+        } while (target.equals(Daemon.ID));
+        Protocol.sendSync(Daemon.ID, true, digest(snapshot), target, transport);
+    }
+
+    /**
+     * a digest arrived, send the entries of the buckets that differ, and this node's digest if asked to
+     * @param codec codec holding the decoded sync
+     * @param transport transport the answer is sent with
+     */
+    void onSync(MessageCodec codec, Transport transport) {
+        MembershipStore.Snapshot snapshot = Daemon.membership.snapshot();
+        int[] localDigest = digest(snapshot);
+        boolean[] differing = new boolean[BUCKETS];
+        boolean anyDiffering = false;
+        for (int i = 0; i < BUCKETS; i++) {
+            differing[i] = localDigest[i] != codec.digest[i];
+            anyDiffering |= differing[i];
+        }
+        if (!anyDiffering) {
+            return;
+        }
+        if (codec.counter == 1) {
+            Protocol.sendSync(Daemon.ID, false, localDigest, codec.ID, transport);
+        }
+        sendEntries(snapshot, differing, codec.ID, transport);
+    }
+
+    /**
+     * apply an entry of a delta
+     * @param ID node ID
+     * @param action ADD for a member, SUSPECT for a suspect member, REMOVE for a removed member
+     * @param counter counter of the member, or the counter it was removed with
+     * @param incarnation incarnation of the member, or the incarnation it was removed with
+     * @param sender node the delta came from, a removal of this node is refuted to it
+     * @param transport transport the refutation is sent with
+     */
+    void onEntry(NodeId ID, Action action, long counter, long incarnation, NodeId sender, Transport transport) {
+        if (ID.equals(Daemon.ID)) {
+            if (action == Action.REMOVE || action == Action.SUSPECT) {
+                Daemon.suspicion.refute(incarnation, sender, transport);
+            }
+            return;
+        }
+        int slot = Daemon.membership.slotOf(ID);
+        if (action == Action.ADD || action == Action.SUSPECT) {
+            if (slot < 0) {
+                if (Daemon.membership.add(ID, counter, incarnation, Daemon.clock.getAsLong())) {
+                    Metrics.syncRepairs.increment();
+                    Daemon.writeLog("SYNC ADD", ID);
+                }
+            } else if (incarnation > Daemon.membership.incarnation(slot)) {
+                if (action == Action.SUSPECT ? Daemon.suspicion.onSuspect(ID, counter, incarnation)
+                        : ListeningThread.raiseIncarnation(ID, incarnation)) {
+                    Metrics.syncRepairs.increment();
+                }
+            }
+        } else if (action == Action.REMOVE && slot >= 0) {
+            long known = Daemon.membership.incarnation(slot);
+            boolean newer = incarnation > known || (incarnation == known
+                    && (counter > Daemon.membership.counter(slot)
+                    || Daemon.membership.status(slot) == MembershipStore.SUSPECT));
+            if (newer && Daemon.membership.remove(ID, counter, incarnation)) {
+                Daemon.suspicion.cancel(ID);
+                Metrics.syncRepairs.increment();
+                Daemon.writeLog("SYNC REMOVE", ID);
+            }
+        }
+    }
+
+    /**
+     * send the members and the removed members of the differing buckets
+     */
+    private void sendEntries(MembershipStore.Snapshot snapshot, boolean[] differing, NodeId target, Transport transport) {
+        Map<NodeId, long[]> tombstones = Daemon.membership.tombstones();
+        int capacity = snapshot.IDs.length + tombstones.size();
+        NodeId[] IDs = new NodeId[capacity];
+        Action[] actions = new Action[capacity];
+        long[] counters = new long[capacity];
+        long[] incarnations = new long[capacity];
+        int count = 0;
+        for (int i = 0; i < snapshot.IDs.length; i++) {
+            if (differing[bucketOf(snapshot.IDs[i])]) {
+                IDs[count] = snapshot.IDs[i];
+                actions[count] = Daemon.membership.status(snapshot.slots[i]) == MembershipStore.SUSPECT
+                        ? Action.SUSPECT : Action.ADD;
+                counters[count] = Daemon.membership.counter(snapshot.slots[i]);
+                incarnations[count++] = Daemon.membership.incarnation(snapshot.slots[i]);
+            }
+        }
+        for (Map.Entry<NodeId, long[]> tombstone : tombstones.entrySet()) {
+            if (differing[bucketOf(tombstone.getKey())]) {
+                IDs[count] = tombstone.getKey();
+                actions[count] = Action.REMOVE;
+                counters[count] = tombstone.getValue()[0];
+                incarnations[count++] = tombstone.getValue()[1];
+            }
+        }
+        Protocol.sendDelta(Daemon.ID, IDs, actions, counters, incarnations, count, target, transport);
+    }
+
+    /**
+     * @return digest of the snapshot, computed once per snapshot version and state change, must not be modified
+     */
+    private synchronized int[] digest(MembershipStore.Snapshot snapshot) {
+        //read before the slots, a change while they are read computes the digest again next time
+        long stateChanges = Daemon.membership.stateChanges();
+        if (snapshot.version != digestVersion || stateChanges != digestStateChanges) {
+            int[] hashes = new int[BUCKETS];
+            for (int i = 0; i < snapshot.IDs.length; i++) {
+                hashes[bucketOf(snapshot.IDs[i])] ^= fingerprint(snapshot.IDs[i],
+                        Daemon.membership.incarnation(snapshot.slots[i]), Daemon.membership.status(snapshot.slots[i]));
+            }
+            digest = hashes;
+            digestVersion = snapshot.version;
+            digestStateChanges = stateChanges;
+        }
+        return digest;
+    }
+
+    private static int bucketOf(NodeId ID) {
+        return ID.hashCode() >>> BUCKET_SHIFT;
+    }
+
+    private static int fingerprint(NodeId ID, long incarnation, int status) {
+        long h = SeenUpdates.mix(ID.second ^ ((long) ID.nano << 32));
+        h = SeenUpdates.mix(h ^ (((long) ID.address << 16) | ID.port));
+        h = SeenUpdates.mix(h ^ (incarnation << 2 | status));
+        return (int) (h ^ (h >>> 32));
+    }
+}
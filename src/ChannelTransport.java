@@ -0,0 +1,33 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**transport over a non-blocking DatagramChannel, used by the event loop
+ * messages are copied into a reused direct buffer so the channel writes without a temporary copy
+ */
+public class ChannelTransport implements Transport {
+    private final DatagramChannel channel;
+    private final ByteBuffer sendBuffer;
+
+    /**
+     * constructor
+     * @param channel channel to send on
+     * @param sendBuffer direct buffer reused for every send, at least one message long
+     */
+    ChannelTransport(DatagramChannel channel, ByteBuffer sendBuffer) {
+        this.channel = channel;
+        this.sendBuffer = sendBuffer;
+    }
+
+    @Override
+    public void send(ByteBuffer message, InetSocketAddress target) throws IOException {
+        int position = message.position();
+        sendBuffer.clear();
+        sendBuffer.put(message);
+        message.position(position);
+        sendBuffer.flip();
+        //a full socket buffer drops the datagram, like a lost UDP packet
+        channel.send(sendBuffer, target);
+    }
+}
@@ -1,35 +1,88 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
 
 /**
  * Created by haosun on 11/1/17.
  * background thread of a node in the distributed system
  */
 public class Daemon {
+    //num of owners the OWNERS command shows
+    private static final int OWNERS_REPLICAS = 3;
+
     //ID of the node, includes time stamp and IP address
-    static String ID;
+    static NodeId ID;
 
     //set using configuration file
     //well-known introducers in the distributed system
     private static String[] hostNames;
+    //members also asked by a joining node the introducers don't answer, may be empty
+    private static String[] seedHosts;
+    //time a joining node tries before giving up, in ms
+    private static long joinTimeout;
     //join port number of introducers, new nodes send join request to this port.
     //same for all the introducers.
     static int joinPortNumber;
     //nodes communicate using this port. same for all the nodes.
     //introducer will have a join port and a packet port
     static int packetPortNumber;
+    //whether the introducer deflates the membership list sent to join nodes
+    static boolean joinCompression;
+    //run the protocol on one NIO event loop instead of one thread per task
+    private static boolean useEventLoop;
+
+    //membership list and neighbours, readers use its lock-free snapshots
+    static MembershipStore membership;
+    //membership updates waiting to be piggybacked on heartbeats
+    static UpdateBuffer updates;
+    //gossiped updates already received, only new ones are relayed and applied
+    static SeenUpdates seenUpdates;
+    //paced sending of membership lists to joining nodes
+    static JoinSender joinSender;
+    //push-pull anti-entropy, null when syncInterval is 0
+    static AntiEntropy antiEntropy;
+    //zone of this node and summaries of the other zones, null when zone is not set
+    static Zones zones;
+    //consistent-hash ring of the members for key lookups, null when hashRingVirtualNodes is 0
+    static HashRing hashRing;
+    //membership change events for subscribed listeners
+    static MembershipEvents events;
+    //dissemination tracing of the gossiped updates, null when traceFile is not set
+    static Tracing tracing;
+    //fanout, relay number and retransmits of updates, fixed or scaled with the group size
+    static Dissemination dissemination = new Dissemination(false, 2);
+    //SWIM failure detector, null when the heartbeat ring detects failures
+    static SwimDetector swim;
+    //phi-accrual timeouts of the heartbeat ring, null for the fixed timeout
+    static PhiAccrualDetector phi;
+    //suspicions of members and refutations of suspicions of this node, used by every detector
+    static Suspicion suspicion;
+    //interval between two heartbeats
+    private static int heartbeatInterval;
+    //source of the current time, the simulator replaces it with virtual time
+    static LongSupplier clock = System::currentTimeMillis;
+    //randomness of target selection and probing, the simulator seeds it
+    static Random random = new Random();
+    //timers of the periodic tasks and per-member deadlines, 10 ms ticks
+    static TimerWheel timers = new TimerWheel(10, 512);
+    //receives every event passed to writeLog, used by the simulator, may be null
+    static BiConsumer<String, NodeId> eventListener;
 
-    //neighbours set, store ID of neighbours
-    static final Set<String> neighbours = new HashSet<>();
-    //membership list. key is ID, value is {heart beat counter, local time millis}
-    static final TreeMap<String, long[]> membershipList = new TreeMap<>();
+    //membership list kept on disk for warm restarts, null when snapshotPath is not set
+    private static MembershipSnapshot snapshot;
+    //interval between two writes of the snapshot
+    private static long snapshotInterval;
+    //membership list of the last run, null unless the node restarts with its old ID
+    private static MembershipSnapshot.Loaded restored;
 
-    //use to write to log file
-    private static PrintWriter fileOutput;
+    //use to write to log file, written asynchronously
+    static EventLog eventLog;
 
     /**
      * constructor
@@ -47,9 +100,64 @@ public class Daemon {
             InputStream inputStream = new FileInputStream(configPath);
             configuration.load(inputStream);
             hostNames = configuration.getProperty("hostNames").split(":");
+            String seeds = configuration.getProperty("seedHosts", "").trim();
+            seedHosts = seeds.isEmpty() ? new String[0] : seeds.split(":");
+            joinTimeout = Long.parseLong(configuration.getProperty("joinTimeout", "5000"));
             joinPortNumber = Integer.parseInt(configuration.getProperty("joinPortNumber"));
             packetPortNumber = Integer.parseInt(configuration.getProperty("packetPortNumber"));
+            joinCompression = Boolean.parseBoolean(configuration.getProperty("joinCompression", "true"));
+            useEventLoop = configuration.getProperty("transport", "threads").equals("nio");
+            heartbeatInterval = Integer.parseInt(configuration.getProperty("heartbeatInterval", "900"));
+            String failureDetector = configuration.getProperty("failureDetector", "ring");
+            long swimPeriod = Long.parseLong(configuration.getProperty("swimPeriod", "1000"));
+            if (failureDetector.equals("phi")) {
+                phi = new PhiAccrualDetector(Double.parseDouble(configuration.getProperty("phiThreshold", "8")),
+                        Integer.parseInt(configuration.getProperty("phiWindowSize", "100")),
+                        Double.parseDouble(configuration.getProperty("phiMinStdDeviation", "100")),
+                        Long.parseLong(configuration.getProperty("phiAcceptablePause",
+                                String.valueOf(heartbeatInterval))),
+                        heartbeatInterval);
+            } else if (failureDetector.equals("swim")) {
+                swim = new SwimDetector(swimPeriod,
+                        Long.parseLong(configuration.getProperty("swimPingTimeout", "300")),
+                        Integer.parseInt(configuration.getProperty("swimIndirectProbes", "3")));
+            }
+            //swimSuspicionTimeout is the name of older configuration files
+            suspicion = new Suspicion(Long.parseLong(configuration.getProperty("suspicionTimeout",
+                    configuration.getProperty("swimSuspicionTimeout", "3000"))),
+                    Integer.parseInt(configuration.getProperty("suspicionMultiplier", "4")),
+                    swim != null ? swimPeriod : heartbeatInterval);
             String logFilePath = configuration.getProperty("logFilePath");
+            boolean scaled = configuration.getProperty("dissemination", "fixed").equals("scaled");
+            dissemination = new Dissemination(scaled, scaled
+                    ? Integer.parseInt(configuration.getProperty("gossipRetransmitMultiplier", "1"))
+                    : Integer.parseInt(configuration.getProperty("gossipRetransmits", "2")));
+            updates = new UpdateBuffer();
+            joinSender = new JoinSender();
+            long syncInterval = Long.parseLong(configuration.getProperty("syncInterval", "5000"));
+            if (syncInterval > 0) {
+                antiEntropy = new AntiEntropy(syncInterval);
+            }
+            seenUpdates = new SeenUpdates(Integer.parseInt(configuration.getProperty("seenUpdatesCapacity", "4096")),
+                    Long.parseLong(configuration.getProperty("seenUpdatesExpiry", "10000")));
+            int virtualNodes = Integer.parseInt(configuration.getProperty("hashRingVirtualNodes", "100"));
+            if (virtualNodes > 0) {
+                hashRing = new HashRing(virtualNodes);
+            }
+            events = new MembershipEvents(Integer.parseInt(configuration.getProperty("eventQueueCapacity", "1024")),
+                    Long.parseLong(configuration.getProperty("eventBatchDelay", "20")));
+            String traceFile = configuration.getProperty("traceFile", "").trim();
+            if (!traceFile.isEmpty()) {
+                tracing = new Tracing(Paths.get(traceFile));
+            }
+            //the membership list holds the zone only, see Zones
+            String zone = configuration.getProperty("zone", "").trim();
+            if (!zone.isEmpty()) {
+                zones = new Zones(zone, Long.parseLong(configuration.getProperty("zoneInterval", "1000")),
+                        Integer.parseInt(configuration.getProperty("zoneDelegates", "2")),
+                        Long.parseLong(configuration.getProperty("zoneTimeout", "10000")),
+                        resolve(hostNames, packetPortNumber));
+            }
 
             System.out.println("configuration file loaded");
             System.out.println("introducer host names are:");
@@ -58,56 +166,44 @@ public class Daemon {
             }
             System.out.println("introducers listen join request on port : " + joinPortNumber);
             System.out.println("nodes communicate on port : " + packetPortNumber);
+            if (zones != null) {
+                System.out.println("zone : " + zones.zone);
+            }
 
             //init ID
             //getInet4Address().toString() will return "/192.168.0.13" so we need substring
-            ID = LocalDateTime.now().toString() + "#" + getInet4Address().toString().substring(1);
+            ID = NodeId.of(LocalDateTime.now(), getInet4Address(), packetPortNumber);
+            //restart with the ID of the last run if it was saved on this address, see MembershipSnapshot
+            String snapshotPath = configuration.getProperty("snapshotPath", "").trim();
+            if (!snapshotPath.isEmpty()) {
+                snapshot = new MembershipSnapshot(Paths.get(snapshotPath));
+                snapshotInterval = Long.parseLong(configuration.getProperty("snapshotInterval", "1000"));
+                MembershipSnapshot.Loaded loaded = MembershipSnapshot.load(Paths.get(snapshotPath), new MessageCodec());
+                if (loaded != null && loaded.self.address == ID.address && loaded.self.port == ID.port) {
+                    ID = loaded.self;
+                    restored = loaded;
+                    System.out.println("restart as " + ID + " with " + loaded.IDs.length + " saved members");
+                }
+            }
+            membership = new MembershipStore(ID,
+                    Integer.parseInt(configuration.getProperty("monitorNeighbours", "1")));
 
             //init log file output stream
             File outputFir = new File(logFilePath);
             if (!outputFir.exists()) {
                 outputFir.mkdir();
             }
-            fileOutput = new PrintWriter(new BufferedWriter(new FileWriter(logFilePath + "result.log")));
+            PrintWriter fileOutput = new PrintWriter(new BufferedWriter(new FileWriter(logFilePath + "result.log")));
+            eventLog = new EventLog(fileOutput,
+                    Integer.parseInt(configuration.getProperty("logBufferSize", "8192")),
+                    EventLog.Level.valueOf(configuration.getProperty("logLevel", "PASS")),
+                    Integer.parseInt(configuration.getProperty("logSampleRate", "1")));
         } catch (IOException e) {
             e.printStackTrace();
         }
-    }
-
-    /**
-     * update neighbours of a node. The node will send heart beats to its neighbours.
-     * Every node has one successor and one predecessor
-     */
-    static void updateNeighbours() {
 
-        synchronized (membershipList) {
-            synchronized (neighbours) {
-                neighbours.clear();
-                //get predecessor
-                String currentKey;
-                currentKey = membershipList.lowerKey(ID);
-                if (currentKey == null) {
-                    currentKey = membershipList.lastKey();
-                }
-                if (!currentKey.equals(ID)) {
-                    neighbours.add(currentKey);
-                }
-
-                //get successor
-                currentKey = membershipList.higherKey(ID);
-                if (currentKey == null) {
-                    currentKey = membershipList.firstKey();
-                }
-                if (!currentKey.equals(ID)) {
-                    neighbours.add(currentKey);
-                }
-
-                for (String neighbour : neighbours) {
-                    long[] neighbourDetail = new long[]{membershipList.get(neighbour)[0], System.currentTimeMillis()};
-                    membershipList.put(neighbour, neighbourDetail);
-                }
-            }
-        }
+        //metrics can be read with the STATS command or any JMX client
+        Metrics.registerMBean();
     }
 
     /**
@@ -115,59 +211,49 @@ public class Daemon {
      * @param isIntroducer whether the node is an introducer node
      */
     private static void joinGroup(boolean isIntroducer) {
-        //init socket, will bind to some automatically chosen port
-        DatagramSocket nodeSocket = null;
-        while (nodeSocket == null) {
-            try {
-                nodeSocket = new DatagramSocket();
-            } catch (SocketException e) {
-                e.printStackTrace();
+        List<InetSocketAddress> seeds = resolve(seedHosts, packetPortNumber);
+        if (restored != null) {
+            //resume with the saved list, the old neighbours are asked for a fresh one before the introducers
+            long now = clock.getAsLong();
+            membership.add(ID, restored.counter, restored.incarnation, now);
+            membership.addAll(restored.IDs, restored.counters, restored.incarnations, now);
+            for (NodeId neighbourID : membership.snapshot().neighbourIDs) {
+                seeds.add(neighbourID.socketAddress());
             }
         }
 
-        //send ID to introducer
-        byte[] sendData = ID.getBytes();
-        for (String hostName : hostNames) {
-            try {
-                InetAddress inetAddress = InetAddress.getByName(hostName);
-                DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, inetAddress, joinPortNumber);
-                nodeSocket.send(sendPacket);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
-        //receive membership list from introducer, put them into local membership list
-        byte[] receiveData = new byte[1024];
-        DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-        try {
-            nodeSocket.setSoTimeout(2000);
-            nodeSocket.receive(receivePacket);
-            String responseFromIntroducer = new String(receivePacket.getData(), 0, receivePacket.getLength());
-            String[] members = responseFromIntroducer.split("%");
-            for (String member : members) {
-                String[] memberDetail = member.split("/");
-                long[] counterLocalTime = new long[]{Long.parseLong(memberDetail[1]), System.currentTimeMillis()};
-                membershipList.put(memberDetail[0], counterLocalTime);
-            }
-
-            //update neighbours
-            updateNeighbours();
-
+        //ask every introducer at once, and the seed members if they don't answer, see JoinClient
+        JoinClient client = new JoinClient(ID, resolve(hostNames, joinPortNumber), seeds, restored != null,
+                joinTimeout);
+        if (client.join(membership)) {
             //write log
             writeLog("JOIN", ID);
-        } catch (SocketTimeoutException e) {
-            if (!isIntroducer) {
-                System.err.println("all introducers are down");
-                System.exit(1);
-            } else {
-                System.out.println("you are the first introducer");
-                membershipList.put(ID, new long[]{0, System.currentTimeMillis()});
-                writeLog("JOIN", ID);
+        } else if (restored != null) {
+            System.out.println("no member answered, resume with the saved membership list");
+            writeLog("JOIN", ID);
+        } else if (!isIntroducer) {
+            System.err.println("all introducers are down");
+            System.exit(1);
+        } else {
+            System.out.println("you are the first introducer");
+            membership.add(ID, 0, 0, clock.getAsLong());
+            writeLog("JOIN", ID);
+        }
+    }
+
+    /**
+     * @return addresses of the hosts on the port, hosts that can't be resolved are left out
+     */
+    private static List<InetSocketAddress> resolve(String[] hosts, int port) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String host : hosts) {
+            try {
+                addresses.add(new InetSocketAddress(InetAddress.getByName(host), port));
+            } catch (UnknownHostException e) {
+                System.err.println("unknown host " + host);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        return addresses;
     }
 
     private static Inet4Address getInet4Address() throws UnknownHostException {
@@ -198,10 +284,16 @@ public class Daemon {
         System.out.println("Enter \"ID\" to show self's ID");
         System.out.println("Enter \"MEMBER\" to show the membership list");
         System.out.println("Enter \"NEIGHBOUR\" to show the neighbour list");
+        System.out.println("Enter \"ZONES\" to show the zone summaries");
+        System.out.println("Enter \"OWNERS <key>\" to show the members owning a key");
+        System.out.println("Enter \"EVENTS\" to print the membership events as they happen");
+        System.out.println("Enter \"STATS\" to show the metrics");
     }
 
     /**
-     * write log files
+     * write log files, the events are queued and written by the writer thread of eventLog
+     * membership changes are logged as a diff, the node added or removed and the new member count,
+     * and passed to events as membership events
      * @param action the action that is performed
      *               all possible actions:
      *               JOIN in daemon thread, node join the group
@@ -212,28 +304,50 @@ public class Daemon {
      *               GOSSIP ADD in listening thread
      *               GOSSIP LEAVE in listening thread
      *               GOSSIP REMOVE in listening thread
+     *               GOSSIP SUSPECT, REFUTED in listening thread
      *               PASS  in monitor thread
-     *               FAILURE in monitor thread
+     *               SUSPECT, SUSPECT CLEARED, FAILURE, SUSPECT REMOVE, REMOVE, REFUTE in Suspicion
+     *               NEIGHBOUR ADD, NEIGHBOUR REMOVE when neighbours are updated
+     *               SYNC ADD, SYNC REMOVE in listening thread, repairs of the anti-entropy
+     *               ZONE REDIRECT, ZONE FOUND in introducer thread, join node of another zone
      * @param nodeID the node ID
      */
-    static void writeLog(String action, String nodeID) {
-
-        // write logs about action happened to the nodeID into log
-        fileOutput.println(LocalDateTime.now().toString() + " \"" + action + "\" " + nodeID);
-        if (action.equals("JOIN") || action.equals("INITIAL ADD") || action.equals("HEARTBEAT REJOIN") ||
-                action.equals("GOSSIP ADD") || action.equals("GOSSIP LEAVE") || action.equals("GOSSIP REMOVE")
-                || action.equals("FAILURE")) {
-            fileOutput.println("Updated Membership List:");
-            for (String key : membershipList.keySet()) {
-                fileOutput.println(key);
-            }
-            fileOutput.println("Updated Neighbor List:");
-            for (String key : neighbours) {
-                fileOutput.println(key);
-            }
-            fileOutput.println("======================");
+    static void writeLog(String action, NodeId nodeID) {
+        if (eventListener != null) {
+            eventListener.accept(action, nodeID);
+        }
+        if (events != null) {
+            events.publish(action, nodeID);
+        }
+        if (eventLog == null) {
+            //no configuration loaded, e.g. the store is used on its own
+            return;
+        }
+        switch (action) {
+            case "PASS":
+                eventLog.write(EventLog.Level.PASS, action, nodeID, null);
+                break;
+            case "HEARTBEAT OWN":
+            case "HEARTBEAT NEIGHBOR":
+                eventLog.write(EventLog.Level.HEARTBEAT, action, nodeID, null);
+                break;
+            case "JOIN":
+            case "INITIAL ADD":
+            case "HEARTBEAT REJOIN":
+            case "GOSSIP ADD":
+            case "SYNC ADD":
+                eventLog.write(EventLog.Level.CHANGE, action, nodeID, "+member (" + membership.size() + " members)");
+                break;
+            case "GOSSIP LEAVE":
+            case "GOSSIP REMOVE":
+            case "SYNC REMOVE":
+            case "SUSPECT REMOVE":
+            case "FAILURE":
+                eventLog.write(EventLog.Level.CHANGE, action, nodeID, "-member (" + membership.size() + " members)");
+                break;
+            default:
+                eventLog.write(EventLog.Level.CHANGE, action, nodeID, null);
         }
-        fileOutput.flush();
     }
 
     public static void main(String[] args) {
@@ -259,33 +373,64 @@ public class Daemon {
         Daemon daemon = new Daemon(configPath);
 
         displayPrompt();
+        //whether the EVENTS command subscribed already
+        boolean watchingEvents = false;
 
         try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(System.in))) {
             String cmd;
             while ((cmd = bufferedReader.readLine()) != null) {
                 switch (cmd) {
                     case "JOIN":
-                        if (membershipList.size() == 0) {
+                        if (membership.size() == 0) {
                             System.out.println("join the group");
                             joinGroup(isIntroducer);
-                            ExecutorService executorService = Executors.newFixedThreadPool(3 + (isIntroducer ? 1 : 0));
-                            if (isIntroducer) {
-                                executorService.execute(new IntroducerThread());
+                            if (useEventLoop) {
+                                new EventLoop(isIntroducer, heartbeatInterval).start();
+                            } else {
+                                ExecutorService executorService = Executors.newFixedThreadPool(4 + (isIntroducer ? 1 : 0));
+                                executorService.execute(timers);
+                                if (isIntroducer) {
+                                    executorService.execute(new IntroducerThread());
+                                }
+                                executorService.execute(new HeartbeatThread(heartbeatInterval));
+                                executorService.execute(new ListeningThread());
+                                executorService.execute(new MonitorThread());
+                                DatagramSocket joinSocket = new DatagramSocket();
+                                joinSender.start(new SocketTransport(joinSocket), true);
+                                joinSender.receiveResends(joinSocket);
+                                if (antiEntropy != null) {
+                                    antiEntropy.start(new SocketTransport(new DatagramSocket()));
+                                }
+                                if (zones != null) {
+                                    zones.start(new SocketTransport(new DatagramSocket()));
+                                }
+                            }
+                            if (snapshot != null) {
+                                snapshot.start(snapshotInterval);
+                            }
+                            if (hashRing != null) {
+                                hashRing.start();
                             }
-                            executorService.execute(new HeartbeatThread(900));
-                            executorService.execute(new ListeningThread());
-                            executorService.execute(new MonitorThread());
                         } else {
                             System.out.println("already in the group");
                         }
                         break;
                     case "LEAVE":
                         System.out.println("leave the group");
-                        if (membershipList.size() != 0) {
-                            Protocol.sendGossip(ID, "LEAVE", membershipList.get(ID)[0],
-                                    2, 2, new DatagramSocket());
-                            fileOutput.println(LocalDateTime.now().toString() + " \"LEAVE!!\" " + ID);
-                            fileOutput.close();
+                        int selfSlot = membership.slotOf(ID);
+                        if (selfSlot >= 0) {
+                            Protocol.sendGossip(ID, Action.LEAVE, membership.counter(selfSlot),
+                                    membership.incarnation(selfSlot), Protocol.gossipTTL(), Protocol.gossipFanout(),
+                                    new SocketTransport(new DatagramSocket()));
+                            writeLog("LEAVE!!", ID);
+                            //a node that left joins with a new ID next time
+                            if (snapshot != null) {
+                                snapshot.delete();
+                            }
+                            eventLog.close();
+                            if (tracing != null) {
+                                tracing.close();
+                            }
                             System.exit(0);
                         }
                         break;
@@ -295,21 +440,63 @@ public class Daemon {
                     case "MEMBER":
                         System.out.println("membership list :");
                         System.out.println("=======================================");
-                        for (Map.Entry<String, long[]> entry : membershipList.entrySet()) {
-                            System.out.println("ID : " + entry.getKey() + "counter : "
-                                    + entry.getValue()[0] + "local time : " + entry.getValue()[1]);
+                        MembershipStore.Snapshot snapshot = membership.snapshot();
+                        for (int i = 0; i < snapshot.IDs.length; i++) {
+                            System.out.println("ID : " + snapshot.IDs[i] + "counter : "
+                                    + membership.counter(snapshot.slots[i])
+                                    + "local time : " + membership.lastSeen(snapshot.slots[i]));
                         }
                         System.out.println("=======================================");
                         break;
                     case "NEIGHBOUR":
                         System.out.println("neighbour list :");
                         System.out.println("=======================================");
-                        for (String neighbour : neighbours) {
-                            System.out.println(neighbour);
+                        MembershipStore.Snapshot neighbours = membership.snapshot();
+                        for (int i = 0; i < neighbours.neighbourIDs.length; i++) {
+                            if (phi != null) {
+                                int slot = neighbours.neighbourSlots[i];
+                                System.out.println(neighbours.neighbourIDs[i] + " phi : " + phi.phi(slot,
+                                        neighbours.neighbourIDs[i], membership.lastSeen(slot), clock.getAsLong()));
+                            } else {
+                                System.out.println(neighbours.neighbourIDs[i]);
+                            }
                         }
                         System.out.println("=======================================");
                         break;
+                    case "ZONES":
+                        System.out.println("zone summaries :");
+                        System.out.println("=======================================");
+                        if (zones != null) {
+                            for (Zones.Summary summary : zones.summaries()) {
+                                System.out.println(summary);
+                            }
+                        }
+                        System.out.println("=======================================");
+                        break;
+                    case "EVENTS":
+                        if (!watchingEvents) {
+                            watchingEvents = true;
+                            events.subscribe(batch -> batch.forEach(System.out::println));
+                        }
+                        System.out.println("membership events are printed as they happen");
+                        break;
+                    case "STATS":
+                        System.out.println("metrics :");
+                        System.out.println("=======================================");
+                        System.out.print(Metrics.text());
+                        System.out.println("=======================================");
+                        break;
                     default:
+                        if (cmd.startsWith("OWNERS ") && hashRing != null) {
+                            String key = cmd.substring("OWNERS ".length());
+                            System.out.println("owners of " + key + " :");
+                            System.out.println("=======================================");
+                            for (NodeId owner : hashRing.ownersOf(key, OWNERS_REPLICAS)) {
+                                System.out.println(owner);
+                            }
+                            System.out.println("=======================================");
+                            break;
+                        }
                         System.out.println("unsupported command");
                 }
                 displayPrompt();
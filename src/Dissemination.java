@@ -0,0 +1,71 @@
+/**how far membership updates are spread, selected with dissemination=fixed|scaled in the configuration file
+ * fixed  : every update gets GOSSIP_TTL relays, GOSSIP_FANOUT random targets per heartbeat and
+ *          gossipRetransmits heartbeat rounds, whatever the group size. enough for a few dozen nodes.
+ * scaled : infection style, the numbers grow with log N so an update reaches the whole group with
+ *          high probability. every node that learns an update relays it for
+ *          gossipRetransmitMultiplier * ceil(log10(N + 1)) rounds to ceil(log10(N + 1)) + 1 random members,
+ *          and the relay number is ceil(log2(N + 1)) so it never stops early. each node relays an update
+ *          once, SeenUpdates drops the copies that come back, so the cost per update per node stays
+ *          O(log N) however many paths it takes. a heartbeat carries a few dozen updates, so a multiplier
+ *          above 1 only pays while updates are rare, under churn it builds a backlog instead.
+ */
+public class Dissemination {
+    private final boolean scaled;
+    //retransmits of fixed dissemination, multiplier of log10 N of scaled dissemination
+    private final int retransmits;
+
+    /**
+     * constructor
+     * @param scaled whether the numbers scale with the group size
+     * @param retransmits rounds an update is piggybacked on with fixed dissemination,
+     *                    rounds per log10 N with scaled dissemination
+     */
+    Dissemination(boolean scaled, int retransmits) {
+        this.scaled = scaled;
+        this.retransmits = Math.max(retransmits, 1);
+    }
+
+    /**
+     * @param size num of members
+     * @return relay number of a new update
+     */
+    int TTL(int size) {
+        if (!scaled) {
+            return Protocol.GOSSIP_TTL;
+        }
+        return Math.max(Protocol.GOSSIP_TTL, 32 - Integer.numberOfLeadingZeros(size));
+    }
+
+    /**
+     * @param size num of members
+     * @return num of random members a heartbeat with pending updates is also sent to
+     */
+    int fanout(int size) {
+        if (!scaled) {
+            return Protocol.GOSSIP_FANOUT;
+        }
+        return Math.max(Protocol.GOSSIP_FANOUT, log10(size) + 1);
+    }
+
+    /**
+     * @param size num of members
+     * @return num of heartbeat rounds an update is piggybacked on
+     */
+    int retransmits(int size) {
+        if (!scaled) {
+            return retransmits;
+        }
+        return retransmits * log10(size);
+    }
+
+    /**
+     * @return ceil(log10(size + 1)), at least 1
+     */
+    private static int log10(int size) {
+        int log = 1;
+        for (long power = 10; power < (long) size + 1; power *= 10) {
+            log++;
+        }
+        return log;
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**asynchronous event log
+ * protocol threads append events to a bounded ring buffer, a background writer drains it in batches
+ * and flushes once per batch, so disk latency never stalls heartbeats or failure detection.
+ * when the ring is full new events are dropped and counted, the writer logs the number dropped.
+ */
+public class EventLog {
+    /**levels of events, a level includes the levels before it
+     * CHANGE : membership and neighbour changes
+     * HEARTBEAT : heartbeats sent and received
+     * PASS : neighbours that passed the monitor check
+     */
+    enum Level {
+        CHANGE,
+        HEARTBEAT,
+        PASS
+    }
+
+    //writer wakes up at least this often
+    private static final long WRITER_INTERVAL = 200;
+
+    private final PrintWriter fileOutput;
+    private final Level level;
+    //HEARTBEAT and PASS events are logged one in sampleRate
+    private final int sampleRate;
+    private long sampleCounter;
+
+    //ring buffer, slots are reused
+    private final long[] times;
+    private final String[] actions;
+    private final Object[] nodeIDs;
+    private final String[] details;
+    private int head;
+    private int size;
+
+    //events dropped because the ring was full, total and not logged yet
+    private long dropped;
+    private long droppedNotLogged;
+    private boolean closed;
+
+    //batch copied out of the ring by the writer
+    private final long[] batchTimes;
+    private final String[] batchActions;
+    private final Object[] batchNodeIDs;
+    private final String[] batchDetails;
+
+    private final Thread writer;
+
+    /**
+     * constructor, starts the background writer
+     * @param fileOutput log file output
+     * @param capacity number of events the ring buffer holds
+     * @param level most detailed level that is logged
+     * @param sampleRate log one in sampleRate HEARTBEAT and PASS events
+     */
+    EventLog(PrintWriter fileOutput, int capacity, Level level, int sampleRate) {
+        this.fileOutput = fileOutput;
+        this.level = level;
+        this.sampleRate = Math.max(sampleRate, 1);
+        times = new long[capacity];
+        actions = new String[capacity];
+        nodeIDs = new Object[capacity];
+        details = new String[capacity];
+        batchTimes = new long[capacity];
+        batchActions = new String[capacity];
+        batchNodeIDs = new Object[capacity];
+        batchDetails = new String[capacity];
+
+        writer = new Thread(this::drain, "EventLogWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * append an event, never blocks on disk
+     * @param eventLevel level of the event
+     * @param action the action that is performed
+     * @param nodeID the node ID, turned into text by the writer
+     * @param detail extra text after the node ID, may be null
+     */
+    void write(Level eventLevel, String action, Object nodeID, String detail) {
+        if (eventLevel.compareTo(level) > 0) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (eventLevel != Level.CHANGE && sampleCounter++ % sampleRate != 0) {
+                return;
+            }
+            if (size == times.length) {
+                dropped++;
+                droppedNotLogged++;
+                return;
+            }
+            int slot = (head + size) % times.length;
+            times[slot] = time;
+            actions[slot] = action;
+            nodeIDs[slot] = nodeID;
+            details[slot] = detail;
+            size++;
+            if (size == times.length / 2) {
+                notify();
+            }
+        }
+    }
+
+    /**
+     * @return number of events dropped because the ring buffer was full
+     */
+    synchronized long droppedEvents() {
+        return dropped;
+    }
+
+    /**
+     * write the pending events and close the log file
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notify();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void drain() {
+        ZoneId zone = ZoneId.systemDefault();
+        boolean done = false;
+        while (!done) {
+            int batchSize;
+            long droppedBatch;
+            synchronized (this) {
+                if (size == 0 && droppedNotLogged == 0 && !closed) {
+                    try {
+                        wait(WRITER_INTERVAL);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+                batchSize = size;
+                for (int i = 0; i < batchSize; i++) {
+                    int slot = (head + i) % times.length;
+                    batchTimes[i] = times[slot];
+                    batchActions[i] = actions[slot];
+                    batchNodeIDs[i] = nodeIDs[slot];
+                    batchDetails[i] = details[slot];
+                    actions[slot] = null;
+                    nodeIDs[slot] = null;
+                    details[slot] = null;
+                }
+                head = (head + batchSize) % times.length;
+                size = 0;
+                droppedBatch = droppedNotLogged;
+                droppedNotLogged = 0;
+                done = closed;
+            }
+
+            for (int i = 0; i < batchSize; i++) {
+                fileOutput.print(LocalDateTime.ofInstant(Instant.ofEpochMilli(batchTimes[i]), zone).toString());
+                fileOutput.print(" \"");
+                fileOutput.print(batchActions[i]);
+                fileOutput.print("\" ");
+                fileOutput.print(batchNodeIDs[i]);
+                if (batchDetails[i] != null) {
+                    fileOutput.print(' ');
+                    fileOutput.print(batchDetails[i]);
+                }
+                fileOutput.println();
+                batchActions[i] = null;
+                batchNodeIDs[i] = null;
+                batchDetails[i] = null;
+            }
+            if (droppedBatch > 0) {
+                fileOutput.println(LocalDateTime.now().toString() + " \"DROPPED\" " + droppedBatch + " events");
+            }
+            if (batchSize > 0 || droppedBatch > 0) {
+                fileOutput.flush();
+            }
+        }
+        fileOutput.close();
+    }
+}
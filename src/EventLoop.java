@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**single-threaded alternative to the introducer, heartbeat, listening and monitor threads
+ * one selector multiplexes the packet port and, on introducers, the join port over non-blocking
+ * DatagramChannels. the loop drives Daemon.timers, so heartbeat and monitor, or the SWIM detector,
+ * run on the same thread.
+ * receive and send buffers are direct and allocated once, so the steady state allocates nothing.
+ * selected with transport=nio in the configuration file
+ */
+public class EventLoop extends Thread {
+    private final boolean isIntroducer;
+
+    //the periodic work, same as in the threads
+    private final HeartbeatThread heartbeat;
+    private final MonitorThread monitor = new MonitorThread();
+    private final IntroducerThread introducer;
+
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(JoinTransfer.MAX_CHUNK_SIZE);
+    private final byte[] joinRequest = new byte[JoinTransfer.MAX_CHUNK_SIZE];
+    private final MessageCodec codec = new MessageCodec();
+
+    /**
+     * constructor
+     * @param isIntroducer whether the node is an introducer node, the join port is served then
+     * @param heartbeatInterval interval between two heartbeats
+     */
+    EventLoop(boolean isIntroducer, int heartbeatInterval) {
+        super("EventLoop");
+        this.isIntroducer = isIntroducer;
+        this.heartbeat = new HeartbeatThread(heartbeatInterval);
+        this.introducer = isIntroducer ? new IntroducerThread() : null;
+    }
+
+    @Override
+    public void run() {
+        try (Selector selector = Selector.open();
+             DatagramChannel packetChannel = DatagramChannel.open();
+             DatagramChannel joinChannel = isIntroducer ? DatagramChannel.open() : null) {
+            packetChannel.bind(new InetSocketAddress(Daemon.packetPortNumber));
+            packetChannel.configureBlocking(false);
+            packetChannel.register(selector, SelectionKey.OP_READ);
+            Transport packetTransport = new ChannelTransport(packetChannel,
+                    ByteBuffer.allocateDirect(JoinTransfer.MAX_CHUNK_SIZE));
+
+            Transport joinTransport = null;
+            if (joinChannel != null) {
+                joinChannel.bind(new InetSocketAddress(Daemon.joinPortNumber));
+                joinChannel.configureBlocking(false);
+                joinChannel.register(selector, SelectionKey.OP_READ);
+                joinTransport = new ChannelTransport(joinChannel,
+                        ByteBuffer.allocateDirect(JoinTransfer.MAX_CHUNK_SIZE));
+            }
+
+            heartbeat.schedule(packetTransport);
+            Daemon.joinSender.start(packetTransport, true);
+            if (Daemon.swim != null) {
+                Daemon.swim.start(packetTransport);
+            } else {
+                monitor.start(packetTransport);
+            }
+            if (Daemon.antiEntropy != null) {
+                Daemon.antiEntropy.start(packetTransport);
+            }
+            if (Daemon.zones != null) {
+                Daemon.zones.start(packetTransport);
+            }
+
+            while (true) {
+                long timeout = Daemon.timers.nextTickTime() - System.currentTimeMillis();
+                if (timeout > 0) {
+                    selector.select(timeout);
+                } else {
+                    selector.selectNow();
+                }
+                //only two channels, read both instead of walking the selected key set
+                selector.selectedKeys().clear();
+
+                receivePackets(packetChannel, packetTransport);
+                if (joinChannel != null) {
+                    receiveJoinRequests(joinChannel, joinTransport);
+                }
+
+                Daemon.timers.advance(System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * handle every datagram waiting on the packet channel
+     */
+    private void receivePackets(DatagramChannel packetChannel, Transport packetTransport) {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress sender;
+            try {
+                sender = packetChannel.receive(receiveBuffer);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            if (sender == null) {
+                return;
+            }
+            receiveBuffer.flip();
+            try {
+                ListeningThread.handleMessage(codec, receiveBuffer, sender, packetTransport);
+            } catch (RuntimeException e) {
+                //one bad packet must not stop the event loop
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * handle every join request waiting on the join channel
+     */
+    private void receiveJoinRequests(DatagramChannel joinChannel, Transport joinTransport) {
+        while (true) {
+            receiveBuffer.clear();
+            try {
+                SocketAddress sender = joinChannel.receive(receiveBuffer);
+                if (sender == null) {
+                    return;
+                }
+                receiveBuffer.flip();
+                int length = receiveBuffer.remaining();
+                receiveBuffer.get(joinRequest, 0, length);
+                introducer.handleRequest(joinRequest, length, (InetSocketAddress) sender, joinTransport);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+}
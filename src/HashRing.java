@@ -0,0 +1,289 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**consistent-hash ring over the membership list, for applications that route keys to members
+ * every member owns virtualNodes points (configuration file hashRingVirtualNodes, 0 turns it off) on a
+ * 32-bit ring, hashed from its ID, and a key belongs to the distinct members of the first points
+ * clockwise from the hash of the key. a member joining or leaving moves only the keys of its own points.
+ * the ring is an immutable Ring of sorted points published with one volatile write. it follows the
+ * membership snapshot on its own thread, checked every REBUILD_INTERVAL: once the snapshot version
+ * changed, only the added members are hashed, their points are merged with the points of the members
+ * that stay and the removed members are filtered out, so a change costs one pass over the points and a
+ * burst of changes one rebuild per REBUILD_INTERVAL, never on the protocol threads or Daemon.timers.
+ * points that collide are ordered by owner ID, so every node builds the same ring from the same list.
+ * in zone mode the membership list, and so the ring, holds the zone of this node only, see Zones.
+ * a lookup reads the ring once, binary searches the hash of the key and walks clockwise. it never
+ * locks and, given the array to fill, allocates nothing, the daemon threads never wait for it.
+ */
+public class HashRing {
+    /**points of the ring, replaced, never modified
+     */
+    static final class Ring {
+        //version of the membership snapshot the ring was built from
+        final long version;
+        //points in ascending order
+        final int[] points;
+        //owner of every point, same order as points
+        final NodeId[] owners;
+        //num of members
+        final int members;
+
+        private Ring(long version, int[] points, NodeId[] owners, int members) {
+            this.version = version;
+            this.points = points;
+            this.owners = owners;
+            this.members = members;
+        }
+    }
+
+    //interval between two checks of the membership snapshot, at most one rebuild per interval
+    static final long REBUILD_INTERVAL = 100;
+
+    //num of points of every member
+    private final int virtualNodes;
+    private volatile Ring ring = new Ring(-1, new int[0], new NodeId[0], 0);
+
+    //points of every member in ascending order, guarded by this
+    private final Map<NodeId, int[]> pointsByID = new HashMap<>();
+
+    /**
+     * constructor
+     * @param virtualNodes num of points of every member
+     */
+    HashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtual nodes must be positive : " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * follow the membership snapshot, checked every REBUILD_INTERVAL on a background thread
+     */
+    void start() {
+        update(Daemon.membership.snapshot());
+        Thread builder = new Thread(this::follow, "HashRing");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    private void follow() {
+        while (true) {
+            try {
+                Thread.sleep(REBUILD_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+            update(Daemon.membership.snapshot());
+        }
+    }
+
+    /**
+     * @return the current ring, never locks
+     */
+    Ring ring() {
+        return ring;
+    }
+
+    /**
+     * rebuild the ring from a snapshot if its version changed, hashing the added members only
+     * @param snapshot membership snapshot
+     */
+    synchronized void update(MembershipStore.Snapshot snapshot) {
+        Ring previous = ring;
+        if (snapshot.version == previous.version) {
+            return;
+        }
+        //snapshot IDs are sorted, a removed member is found by binary search
+        Set<NodeId> removed = new HashSet<>();
+        Iterator<NodeId> known = pointsByID.keySet().iterator();
+        while (known.hasNext()) {
+            NodeId ID = known.next();
+            if (Arrays.binarySearch(snapshot.IDs, ID) < 0) {
+                removed.add(ID);
+                known.remove();
+            }
+        }
+        List<NodeId> added = new ArrayList<>();
+        for (NodeId ID : snapshot.IDs) {
+            if (!pointsByID.containsKey(ID)) {
+                pointsByID.put(ID, points(ID));
+                added.add(ID);
+            }
+        }
+        if (removed.isEmpty() && added.isEmpty()) {
+            ring = new Ring(snapshot.version, previous.points, previous.owners, previous.members);
+            return;
+        }
+
+        //points of the added members as point << 32 | index in added, sorted by point then owner ID
+        long[] entries = new long[added.size() * virtualNodes];
+        for (int i = 0; i < added.size(); i++) {
+            int[] points = pointsByID.get(added.get(i));
+            for (int j = 0; j < virtualNodes; j++) {
+                entries[i * virtualNodes + j] = ((long) points[j] << 32) | i;
+            }
+        }
+        Arrays.sort(entries);
+
+        int size = pointsByID.size() * virtualNodes;
+        int[] points = new int[size];
+        NodeId[] owners = new NodeId[size];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < previous.points.length || j < entries.length) {
+            if (i < previous.points.length && removed.contains(previous.owners[i])) {
+                i++;
+                continue;
+            }
+            boolean takePrevious;
+            if (j == entries.length) {
+                takePrevious = true;
+            } else if (i == previous.points.length) {
+                takePrevious = false;
+            } else {
+                int point = (int) (entries[j] >> 32);
+                takePrevious = previous.points[i] < point || (previous.points[i] == point
+                        && previous.owners[i].compareTo(added.get((int) entries[j])) < 0);
+            }
+            if (takePrevious) {
+                points[count] = previous.points[i];
+                owners[count++] = previous.owners[i++];
+            } else {
+                points[count] = (int) (entries[j] >> 32);
+                owners[count++] = added.get((int) entries[j++]);
+            }
+        }
+        ring = new Ring(snapshot.version, points, owners, pointsByID.size());
+    }
+
+    /**
+     * @return the points of a member in ascending order
+     */
+    private int[] points(NodeId ID) {
+        long h = SeenUpdates.mix(ID.second ^ ((long) ID.nano << 32));
+        h = SeenUpdates.mix(h ^ (((long) ID.address << 16) | ID.port));
+        int[] points = new int[virtualNodes];
+        for (int i = 0; i < virtualNodes; i++) {
+            long point = SeenUpdates.mix(h + i * 0x9E3779B97F4A7C15L);
+            points[i] = (int) (point ^ (point >>> 32));
+        }
+        Arrays.sort(points);
+        return points;
+    }
+
+    /**
+     * hash of a key on the ring, allocates nothing
+     * @param key the key
+     * @return the hash
+     */
+    public static int hash(CharSequence key) {
+        //FNV-1a over the chars, then mixed so close keys land far apart
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        h = SeenUpdates.mix(h);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * members owning a key, never locks and allocates nothing
+     * @param key the key
+     * @param replicas num of members wanted
+     * @param owners filled with the owners, the first one is the primary
+     * @return num of owners put in owners, less than replicas if the array or the group is smaller
+     */
+    public int ownersOf(CharSequence key, int replicas, NodeId[] owners) {
+        return ownersOf(hash(key), replicas, owners);
+    }
+
+    /**
+     * members owning a key hash, never locks and allocates nothing
+     * @param hash hash of the key, see hash
+     * @param replicas num of members wanted
+     * @param owners filled with the owners, the first one is the primary
+     * @return num of owners put in owners, less than replicas if the array or the group is smaller
+     */
+    public int ownersOf(int hash, int replicas, NodeId[] owners) {
+        Ring ring = this.ring;
+        int wanted = Math.min(Math.min(replicas, owners.length), ring.members);
+        int count = 0;
+        int i = ceiling(ring.points, hash);
+        for (int walked = 0; walked < ring.points.length && count < wanted; walked++, i++) {
+            if (i == ring.points.length) {
+                i = 0;
+            }
+            if (!contains(owners, count, ring.owners[i])) {
+                owners[count++] = ring.owners[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * members owning a key, never locks, allocates the returned array only
+     * @param key the key
+     * @param replicas num of members wanted
+     * @return the owners, the first one is the primary, fewer than replicas if the group is smaller
+     */
+    public NodeId[] ownersOf(CharSequence key, int replicas) {
+        NodeId[] owners = new NodeId[Math.max(0, Math.min(replicas, ring.members))];
+        int count = ownersOf(hash(key), owners.length, owners);
+        return count == owners.length ? owners : Arrays.copyOf(owners, count);
+    }
+
+    /**
+     * primary owner of a key, never locks and allocates nothing
+     * @param key the key
+     * @return the owner, null if the ring is empty
+     */
+    public NodeId ownerOf(CharSequence key) {
+        Ring ring = this.ring;
+        if (ring.points.length == 0) {
+            return null;
+        }
+        int i = ceiling(ring.points, hash(key));
+        return ring.owners[i == ring.points.length ? 0 : i];
+    }
+
+    /**
+     * @return num of members on the ring
+     */
+    public int size() {
+        return ring.members;
+    }
+
+    /**
+     * @return index of the first point not below hash, points.length if there is none
+     */
+    private static int ceiling(int[] points, int hash) {
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (points[middle] < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static boolean contains(NodeId[] IDs, int count, NodeId ID) {
+        for (int i = 0; i < count; i++) {
+            if (IDs[i] == ID) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,7 +1,7 @@
 import java.net.DatagramSocket;
 import java.net.SocketException;
 
-/**send heartbeat periodically
+/**send heartbeat periodically, at a fixed rate on Daemon.timers
  * Created by haosun on 11/3/17.
  */
 public class HeartbeatThread extends Thread{
@@ -11,7 +11,9 @@ public class HeartbeatThread extends Thread{
     HeartbeatThread(int interval) {
         //super("HeartbeatThread");
         this.interval = interval;
-        this.counter = 1;
+        //a node restarted from a snapshot continues above the counter it reserved
+        int selfSlot = Daemon.membership.slotOf(Daemon.ID);
+        this.counter = selfSlot >= 0 ? Daemon.membership.counter(selfSlot) + 1 : 1;
     }
 
     @Override
@@ -23,17 +25,26 @@ public class HeartbeatThread extends Thread{
             e.printStackTrace();
         }
 
-        while (true) {
-            try {
-                Thread.sleep(interval);
-                synchronized (Daemon.membershipList) {
-                    Protocol.sendHeartBeat(Daemon.ID, counter++, sendSocket);
-                    Daemon.membershipList.put(Daemon.ID, new long[]{counter, System.currentTimeMillis()});
-                    Daemon.writeLog("HEARTBEAT OWN", Daemon.ID);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        schedule(new SocketTransport(sendSocket));
+    }
+
+    /**
+     * send heartbeats at a fixed rate on Daemon.timers
+     * @param transport transport used to send the heartbeats
+     */
+    void schedule(Transport transport) {
+        Daemon.timers.scheduleAtFixedRate(() -> beat(transport), interval, interval);
+    }
+
+    /**
+     * send one heartbeat with the own incarnation and record it in the own membership entry
+     * @param transport transport used to send the heartbeat
+     */
+    void beat(Transport transport) {
+        int selfSlot = Daemon.membership.slotOf(Daemon.ID);
+        long incarnation = selfSlot >= 0 ? Daemon.membership.incarnation(selfSlot) : 0;
+        Protocol.sendHeartBeat(Daemon.ID, counter++, incarnation, transport);
+        Daemon.membership.heartbeat(Daemon.ID, counter, Daemon.clock.getAsLong());
+        Daemon.writeLog("HEARTBEAT OWN", Daemon.ID);
     }
 }
@@ -1,15 +1,16 @@
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 /**
  * Created by haosun on 11/3/17.
  */
 public class IntroducerThread extends Thread {
-
     @Override
     public void run() {
         //init introducer socket, listen to join requests
@@ -21,52 +22,108 @@ public class IntroducerThread extends Thread {
                 e.printStackTrace();
             }
         }
+        Transport transport = new SocketTransport(introducerSocket);
 
         //store the ID of the nodes requesting join
         byte[] receiveData = new byte[1024];
-        //store membership list to send to the new join node
-        byte[] sendData;
+        DatagramPacket introducerReceivePacket = new DatagramPacket(receiveData, receiveData.length);
 
         while (true) {
             try {
-                DatagramPacket introducerReceivePacket = new DatagramPacket(receiveData, receiveData.length);
+                introducerReceivePacket.setLength(receiveData.length);
                 introducerSocket.receive(introducerReceivePacket);
-                String joinNodeID = new String(introducerReceivePacket.getData(), 0, introducerReceivePacket.getLength());
-                Daemon.membershipList.put(joinNodeID, new long[]{0, System.currentTimeMillis()});
-
-                //build the membership list into a string
-                //send the string to the join node
-                //message format
-                //nodeID/counter%anothernodeID/counter
-                StringBuilder sb = new StringBuilder();
-                synchronized (Daemon.membershipList) {
-                    for (Map.Entry<String, long[]> mapEntry : Daemon.membershipList.entrySet()) {
-                        //append ID
-                        sb.append(mapEntry.getKey());
-                        sb.append("/");
-                        //append counter
-                        sb.append(mapEntry.getValue()[0]);
-                        sb.append("%");
-                    }
-                }
+                handleRequest(introducerReceivePacket.getData(), introducerReceivePacket.getLength(),
+                        (InetSocketAddress) introducerReceivePacket.getSocketAddress(), transport);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                //send the string to the joining node
-                sendData = sb.toString().getBytes();
-                InetAddress joinNodeAddress = InetAddress.getByName(joinNodeID.split("#")[1]);
-                DatagramPacket introducerSendPacket = new DatagramPacket(sendData, sendData.length, joinNodeAddress, introducerReceivePacket.getPort());
-                introducerSocket.send(introducerSendPacket);
+    /**
+     * handle a datagram received on the join port, a join request or a resend request, see JoinTransfer
+     * @param data the datagram
+     * @param length length of the datagram
+     * @param sender address the datagram came from
+     * @param transport transport used to send the membership list
+     * @throws IOException if the membership list could not be sent
+     */
+    void handleRequest(byte[] data, int length, InetSocketAddress sender, Transport transport) throws IOException {
+        //bytes on the wire, the request text can hold multi-byte chars
+        Metrics.received(Metrics.JOIN, length);
+        if (JoinTransfer.isResend(data, length)) {
+            Daemon.joinSender.resend(ByteBuffer.wrap(data, 0, length), sender);
+            return;
+        }
+        handleJoinRequest(new String(data, 0, length, StandardCharsets.UTF_8), sender, transport);
+    }
 
-                //update neighbours
-                Daemon.updateNeighbours();
+    /**
+     * add the join node, send it the membership list and gossip its join.
+     * a join node of another zone is redirected to the delegates of its zone, see Zones
+     * @param request join request, the ID of the join node, then a space and its zone in zone mode
+     * @param sender address the request came from, the membership list is sent there
+     * @param transport transport used to send the membership list
+     * @throws IOException if the membership list could not be sent
+     */
+    void handleJoinRequest(String request, InetSocketAddress sender, Transport transport) throws IOException {
+        int space = request.indexOf(' ');
+        String zone = space < 0 ? null : request.substring(space + 1);
+        NodeId joinNodeID;
+        try {
+            joinNodeID = NodeId.parse(space < 0 ? request : request.substring(0, space));
+        } catch (RuntimeException e) {
+            System.err.println("invalid join request from " + sender);
+            return;
+        }
+        if (Daemon.zones != null && zone != null && !zone.equals(Daemon.zones.zone)) {
+            redirect(joinNodeID, zone, sender);
+        } else {
+            admit(joinNodeID, 0, sender);
+        }
+    }
 
-                //write log
-                Daemon.writeLog("INITIAL ADD", joinNodeID);
+    /**
+     * send a join node of another zone the delegates of its zone, or, if the zone is unknown, a membership
+     * list holding the join node alone, it is the first node of its zone then
+     */
+    private static void redirect(NodeId joinNodeID, String zone, InetSocketAddress sender) {
+        int transferID = Daemon.joinSender.nextTransferID();
+        Zones.Summary summary = Daemon.zones.summary(zone);
+        List<byte[]> chunks;
+        if (summary != null) {
+            chunks = JoinTransfer.encodeRedirect(summary.delegates, transferID);
+            Daemon.writeLog("ZONE REDIRECT", joinNodeID);
+        } else {
+            Daemon.zones.found(zone, joinNodeID);
+            chunks = JoinTransfer.encode(new NodeId[]{joinNodeID}, new long[1], new long[1], transferID, (byte) 0);
+            Daemon.writeLog("ZONE FOUND", joinNodeID);
+        }
+        Daemon.joinSender.send(transferID, chunks, sender);
+    }
 
-                //gossip the new join to all the nodes
-                Protocol.sendGossip(joinNodeID, "ADD", 0, 2, 2, introducerSocket);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    /**
+     * add the join node, send it the membership list and gossip its join.
+     * used by introducers for join requests and by any member for join messages, on the receiving thread:
+     * the list is encoded and sent by JoinSender, which ignores requests repeated within its interval.
+     * a node already a member, a retry, or removed with its incarnation or a higher one gets the list
+     * but no gossip, the removed one refutes the removal once it heartbeats, see Suspicion
+     * @param joinNodeID ID of the join node
+     * @param incarnation incarnation of the join node, above 0 for a node restarted with its old ID
+     * @param sender address the request came from, the membership list is sent there
+     */
+    static void admit(NodeId joinNodeID, long incarnation, InetSocketAddress sender) {
+        //JoinSender encodes the membership list into chunks and paces them, see JoinTransfer for the format
+        if (!Daemon.joinSender.sendMembership(sender)
+                || !Daemon.membership.add(joinNodeID, 0, incarnation, Daemon.clock.getAsLong())) {
+            return;
         }
+
+        //write log
+        Daemon.writeLog("INITIAL ADD", joinNodeID);
+
+        //gossip the new join to all the nodes, piggybacked on the next heartbeats
+        Daemon.seenUpdates.add(joinNodeID, Action.ADD, incarnation, Daemon.clock.getAsLong());
+        Daemon.updates.add(joinNodeID, Action.ADD, 0, incarnation, Protocol.gossipTTL());
     }
 }
@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**join client of a new node, gets the membership list from whoever answers first
+ * the join request goes to every introducer at once. without a complete list it is sent again after
+ * a jittered exponential backoff, INITIAL_BACKOFF doubling up to MAX_BACKOFF, until the join timeout.
+ * from the second round it also goes to the seed members, any live member answers a join message on
+ * its packet port (ListeningThread), so a join doesn't depend on the introducers alone.
+ * a node restarted from a MembershipSnapshot asks its old neighbours first and the introducers only
+ * from the second round, so a mass restart doesn't all land on the introducers.
+ * in zone mode the request names the zone of the node, an introducer of another zone redirects it to
+ * the delegates of its zone, they are asked at once and become seeds, see Zones.
+ * every answer is a separate transfer reassembled on its own, so chunks of a slow or retried transfer
+ * never spoil another one. the first complete list is the join, the lists that complete within
+ * LATE_RESPONSE_WINDOW after it are merged into the membership list in the background.
+ * a round that finds transfers missing chunks asks for the missing chunks instead of a new list,
+ * MAX_RESEND_ATTEMPTS times per transfer. the request goes to the address the chunks of the transfer
+ * came from, the JoinSender of the introducer or member that answered, see JoinSender.
+ */
+public class JoinClient {
+    private static final long INITIAL_BACKOFF = 250;
+    private static final long MAX_BACKOFF = 2000;
+    //late answers are merged this long after the join
+    private static final long LATE_RESPONSE_WINDOW = 1000;
+    //requests for the missing chunks of one transfer before a new list is asked for
+    private static final int MAX_RESEND_ATTEMPTS = 2;
+    //socket receive buffer, holds the membership lists of several answers of tens of thousands of members
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final NodeId ID;
+    //join ports of the introducers
+    private final List<InetSocketAddress> introducers;
+    //packet ports of members asked from the second round
+    private final List<InetSocketAddress> seeds;
+    //whether the seeds are asked in the first round and the introducers from the second
+    private final boolean seedsFirst;
+    private final long timeout;
+
+    private final MessageCodec codec = new MessageCodec();
+    //transfers being reassembled by the address they come from
+    private final Map<InetSocketAddress, List<JoinTransfer.Receiver>> transfers = new HashMap<>();
+    //requests for missing chunks sent by transfer
+    private final Map<JoinTransfer.Receiver, Integer> resendAttempts = new HashMap<>();
+    //delegates of the zone of this node from redirects not asked yet
+    private final List<InetSocketAddress> redirects = new ArrayList<>();
+
+    /**
+     * constructor
+     * @param ID ID of the joining node
+     * @param introducers join ports of the introducers
+     * @param seeds packet ports of members to ask as well if the introducers don't answer at once
+     * @param seedsFirst whether to ask the seeds first and the introducers if the seeds don't answer at once
+     * @param timeout time to give up after, in ms
+     */
+    JoinClient(NodeId ID, List<InetSocketAddress> introducers, List<InetSocketAddress> seeds, boolean seedsFirst,
+               long timeout) {
+        this.ID = ID;
+        this.introducers = introducers;
+        this.seeds = seeds;
+        this.seedsFirst = seedsFirst;
+        this.timeout = timeout;
+    }
+
+    /**
+     * join, blocks until a complete membership list arrived or the timeout
+     * @param membership membership the list is added to
+     * @return false if no complete list arrived within the timeout
+     */
+    boolean join(MembershipStore membership) {
+        DatagramSocket socket;
+        try {
+            socket = new DatagramSocket();
+        } catch (SocketException e) {
+            e.printStackTrace();
+            return false;
+        }
+        try {
+            socket.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+        } catch (SocketException e) {
+            e.printStackTrace();
+        }
+
+        byte[] receiveData = new byte[JoinTransfer.MAX_CHUNK_SIZE];
+        DatagramPacket packet = new DatagramPacket(receiveData, receiveData.length);
+        long start = Daemon.clock.getAsLong();
+        long deadline = start + timeout;
+        long nextRequest = start;
+        long backoff = INITIAL_BACKOFF;
+        //above 0 if the node restarted with its old ID, the seeds admit it with it
+        int selfSlot = membership.slotOf(ID);
+        long incarnation = selfSlot >= 0 ? membership.incarnation(selfSlot) : 0;
+        for (int round = 0; ; ) {
+            long now = Daemon.clock.getAsLong();
+            if (now >= deadline) {
+                socket.close();
+                return false;
+            }
+            if (now >= nextRequest) {
+                boolean resent = round > 0 && requestMissingChunks(socket);
+                sendRequests(socket, (!seedsFirst || round > 0) && !resent, seedsFirst || round > 0, incarnation);
+                round++;
+                //equal jitter, so joins restarted together spread out
+                nextRequest = now + backoff / 2 + Daemon.random.nextInt((int) (backoff / 2) + 1);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+
+            try {
+                socket.setSoTimeout((int) Math.max(1, Math.min(nextRequest, deadline) - now));
+                packet.setLength(receiveData.length);
+                socket.receive(packet);
+            } catch (SocketTimeoutException e) {
+                continue;
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            Metrics.received(Metrics.JOIN, packet.getLength());
+            if (accept(packet, membership)) {
+                Metrics.joinLatency.record(Daemon.clock.getAsLong() - start);
+                Thread merger = new Thread(() -> mergeLateResponses(socket, membership), "join-merge");
+                merger.setDaemon(true);
+                merger.start();
+                return true;
+            }
+            if (!redirects.isEmpty()) {
+                sendJoin(socket, redirects, incarnation);
+                seeds.addAll(redirects);
+                redirects.clear();
+            }
+        }
+    }
+
+    /**
+     * send the join request to the introducers, and to the seed members
+     */
+    private void sendRequests(DatagramSocket socket, boolean includeIntroducers, boolean includeSeeds,
+                              long incarnation) {
+        if (includeIntroducers) {
+            byte[] request = (Daemon.zones == null ? ID.toString() : ID + " " + Daemon.zones.zone).getBytes();
+            for (InetSocketAddress introducer : introducers) {
+                send(socket, request, request.length, introducer);
+            }
+        }
+        if (includeSeeds) {
+            sendJoin(socket, seeds, incarnation);
+        }
+    }
+
+    /**
+     * ask for the chunks missing from the transfers being reassembled, each request goes to the address
+     * the chunks of its transfer came from. only a request that was sent counts as an attempt
+     * @return whether a request was sent
+     */
+    private boolean requestMissingChunks(DatagramSocket socket) {
+        boolean sent = false;
+        int[] missing = new int[JoinTransfer.MAX_RESEND_INDICES];
+        for (Map.Entry<InetSocketAddress, List<JoinTransfer.Receiver>> entry : transfers.entrySet()) {
+            for (JoinTransfer.Receiver receiver : entry.getValue()) {
+                int attempts = resendAttempts.getOrDefault(receiver, 0);
+                if (receiver.isComplete() || attempts == MAX_RESEND_ATTEMPTS) {
+                    continue;
+                }
+                byte[] request = JoinTransfer.encodeResend(receiver.transferID(), missing, receiver.missing(missing));
+                if (send(socket, request, request.length, entry.getKey())) {
+                    resendAttempts.put(receiver, attempts + 1);
+                    sent = true;
+                }
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * send the join message to the packet ports of members
+     */
+    private void sendJoin(DatagramSocket socket, List<InetSocketAddress> members, long incarnation) {
+        if (members.isEmpty()) {
+            return;
+        }
+        codec.begin(MessageCodec.TYPE_JOIN, ID, Action.ADD, 0, incarnation, 0);
+        ByteBuffer message = codec.finish();
+        byte[] join = new byte[message.remaining()];
+        message.get(join);
+        for (InetSocketAddress member : members) {
+            send(socket, join, join.length, member);
+        }
+    }
+
+    /**
+     * @return whether the datagram was sent
+     */
+    private static boolean send(DatagramSocket socket, byte[] data, int length, InetSocketAddress target) {
+        try {
+            socket.send(new DatagramPacket(data, length, target));
+            Metrics.sent(Metrics.JOIN, length);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * hand a chunk to its transfer, and read the transfer into the membership list once it is complete.
+     * the delegates of a complete redirect are put in redirects
+     * @return whether a complete list was added
+     */
+    private boolean accept(DatagramPacket packet, MembershipStore membership) {
+        List<JoinTransfer.Receiver> receivers = transfers.computeIfAbsent((InetSocketAddress) packet.getSocketAddress(), k -> new ArrayList<>());
+        JoinTransfer.Receiver receiver = null;
+        for (JoinTransfer.Receiver candidate : receivers) {
+            if (candidate.accept(packet)) {
+                receiver = candidate;
+                break;
+            }
+        }
+        if (receiver == null) {
+            receiver = new JoinTransfer.Receiver();
+            if (!receiver.accept(packet)) {
+                return false;
+            }
+            receivers.add(receiver);
+        }
+        if (!receiver.isComplete()) {
+            return false;
+        }
+        receivers.remove(receiver);
+        resendAttempts.remove(receiver);
+        if (receiver.isRedirect()) {
+            NodeId[] delegates = receiver.readRedirect(codec);
+            if (delegates != null) {
+                for (NodeId delegate : delegates) {
+                    if (!seeds.contains(delegate.socketAddress()) && !redirects.contains(delegate.socketAddress())) {
+                        redirects.add(delegate.socketAddress());
+                    }
+                }
+            }
+            return false;
+        }
+        if (!receiver.readInto(membership, codec)) {
+            System.err.println("corrupt membership list from " + packet.getSocketAddress());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * merge the lists that complete within LATE_RESPONSE_WINDOW, then close the socket
+     */
+    private void mergeLateResponses(DatagramSocket socket, MembershipStore membership) {
+        byte[] receiveData = new byte[JoinTransfer.MAX_CHUNK_SIZE];
+        DatagramPacket packet = new DatagramPacket(receiveData, receiveData.length);
+        long end = Daemon.clock.getAsLong() + LATE_RESPONSE_WINDOW;
+        try {
+            for (long now = Daemon.clock.getAsLong(); now < end; now = Daemon.clock.getAsLong()) {
+                try {
+                    socket.setSoTimeout((int) (end - now));
+                    packet.setLength(receiveData.length);
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                Metrics.received(Metrics.JOIN, packet.getLength());
+                accept(packet, membership);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            socket.close();
+        }
+    }
+}
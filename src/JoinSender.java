@@ -0,0 +1,304 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**paced sending of membership lists to joining nodes, see JoinTransfer
+ * a join request only queues a transfer here, the receiving thread neither encodes nor sends the list.
+ * the list is encoded on an encoder thread, a full encode and deflate never runs on Daemon.timers, so a
+ * burst of joins doesn't hold up heartbeats and failure detection. the simulator, one thread in simulated
+ * time, encodes one list per TICK instead. a node gets at most one transfer per
+ * MIN_REQUEST_INTERVAL, the retries of a joining node and a flood of requests from one address are ignored.
+ * a list of thousands of members is hundreds of chunks, sent back to back they overflow the receive
+ * buffer of the joining node. chunks are sent CHUNKS_PER_TICK every TICK on Daemon.timers, one chunk
+ * of every transfer in turn, so a big list doesn't hold up a small one.
+ * a transfer is kept RETENTION ms after it was queued, at most MAX_TRANSFERS of them: a joining node
+ * that misses chunks sends a resend request with the missing indices to the address the chunks came
+ * from, and only those chunks are queued again, to the address the transfer went to. the packet port
+ * hands them over in ListeningThread, the socket of the JoinSender in thread mode has its own thread.
+ */
+public class JoinSender {
+    //interval between two rounds of sends, one tick of Daemon.timers
+    static final long TICK = 10;
+    static final int CHUNKS_PER_TICK = 16;
+    //time a transfer can be asked to resend chunks
+    static final long RETENTION = 5000;
+    static final int MAX_TRANSFERS = 64;
+    //time a node waits for a new transfer after the last one, below the first retry of JoinClient
+    static final long MIN_REQUEST_INTERVAL = 100;
+
+    /**chunks of one transfer and the indices still to send, guarded by the JoinSender
+     */
+    private static final class Transfer {
+        final int ID;
+        final InetSocketAddress target;
+        final long created;
+        final ArrayDeque<Integer> queue = new ArrayDeque<>();
+        //null until the membership list is encoded
+        List<byte[]> chunks;
+        boolean[] queued;
+
+        Transfer(int ID, InetSocketAddress target, long created) {
+            this.ID = ID;
+            this.target = target;
+            this.created = created;
+        }
+
+        void setChunks(List<byte[]> chunks) {
+            this.chunks = chunks;
+            this.queued = new boolean[chunks.size()];
+            for (int i = 0; i < chunks.size(); i++) {
+                enqueue(i);
+            }
+        }
+
+        void enqueue(int index) {
+            if (index >= 0 && index < queued.length && !queued[index]) {
+                queued[index] = true;
+                queue.add(index);
+            }
+        }
+    }
+
+    //every transfer gets its own ID, so the joining node can tell transfers apart
+    private final AtomicInteger transferIDs = new AtomicInteger(Daemon.random.nextInt(Integer.MAX_VALUE));
+    //transfer ID -> transfer, oldest first
+    private final Map<Integer, Transfer> transfers = new LinkedHashMap<>();
+    //num of transfers with queued chunks
+    private int active;
+    //transfers of the membership list waiting to be encoded, oldest first
+    private final ArrayDeque<Transfer> unencoded = new ArrayDeque<>();
+    //transport the chunks are sent with, membership list and compression of the lists, set by start
+    private Transport transport;
+    private MembershipStore membership;
+    private boolean compress;
+    //whether the lists are encoded on the encoder thread, else one per TICK on Daemon.timers
+    private boolean encoder;
+
+    /**
+     * start sending, every TICK on Daemon.timers
+     * @param transport transport used to send the chunks, only used on Daemon.timers
+     * @param encoder whether to encode the lists on an encoder thread, false in the simulator, which runs
+     *                every node on one thread in simulated time
+     */
+    void start(Transport transport, boolean encoder) {
+        this.transport = transport;
+        this.membership = Daemon.membership;
+        this.compress = Daemon.joinCompression;
+        this.encoder = encoder;
+        if (encoder) {
+            Thread thread = new Thread(this::encodeLists, "JoinSenderEncoder");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Daemon.timers.scheduleAtFixedRate(this::tick, TICK, TICK);
+    }
+
+    /**
+     * receive the resend requests sent to the socket of the chunks on a thread of its own, for a socket
+     * that isn't the packet port
+     * @param socket socket the chunks are sent from
+     */
+    void receiveResends(DatagramSocket socket) {
+        Thread thread = new Thread(() -> {
+            byte[] receiveData = new byte[1024];
+            DatagramPacket packet = new DatagramPacket(receiveData, receiveData.length);
+            while (true) {
+                try {
+                    packet.setLength(receiveData.length);
+                    socket.receive(packet);
+                    Metrics.received(Metrics.JOIN, packet.getLength());
+                    if (JoinTransfer.isResend(receiveData, packet.getLength())) {
+                        resend(ByteBuffer.wrap(receiveData, 0, packet.getLength()),
+                                (InetSocketAddress) packet.getSocketAddress());
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "JoinSenderResends");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return ID of a new transfer
+     */
+    int nextTransferID() {
+        return transferIDs.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * queue the membership list, it is encoded on the encoder thread
+     * @param target address the list is sent to
+     * @return false if a transfer went to the address within MIN_REQUEST_INTERVAL, nothing is queued then
+     */
+    synchronized boolean sendMembership(InetSocketAddress target) {
+        long now = Daemon.clock.getAsLong();
+        for (Transfer transfer : transfers.values()) {
+            if (transfer.target.equals(target) && now - transfer.created < MIN_REQUEST_INTERVAL) {
+                return false;
+            }
+        }
+        unencoded.add(add(nextTransferID(), target));
+        notify();
+        return true;
+    }
+
+    /**
+     * queue the chunks of a transfer
+     * @param transferID ID of the transfer, the chunks carry it
+     * @param chunks the chunks, one datagram payload each
+     * @param target address the chunks are sent to
+     */
+    synchronized void send(int transferID, List<byte[]> chunks, InetSocketAddress target) {
+        Transfer transfer = add(transferID, target);
+        transfer.setChunks(chunks);
+        active++;
+    }
+
+    private Transfer add(int transferID, InetSocketAddress target) {
+        long now = Daemon.clock.getAsLong();
+        prune(now);
+        Transfer transfer = new Transfer(transferID, target, now);
+        transfers.put(transferID, transfer);
+        return transfer;
+    }
+
+    /**
+     * a joining node asks for missing chunks, queue them again if the transfer went to it
+     * @param request resend request, see JoinTransfer
+     * @param sender address the request came from
+     */
+    synchronized void resend(ByteBuffer request, InetSocketAddress sender) {
+        try {
+            request.get();
+            request.get();
+            int transferID = (int) MessageCodec.getVarLong(request);
+            long count = MessageCodec.getVarLong(request);
+            Transfer transfer = transfers.get(transferID);
+            if (transfer == null || transfer.chunks == null || !transfer.target.equals(sender)
+                    || count > JoinTransfer.MAX_RESEND_INDICES) {
+                return;
+            }
+            boolean wasActive = !transfer.queue.isEmpty();
+            for (long i = 0; i < count; i++) {
+                transfer.enqueue((int) MessageCodec.getVarLong(request));
+            }
+            if (!wasActive && !transfer.queue.isEmpty()) {
+                active++;
+                Metrics.joinResends.increment();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("malformed resend request from " + sender);
+        }
+    }
+
+    /**
+     * encoder thread, encodes the queued lists oldest first
+     */
+    private void encodeLists() {
+        while (true) {
+            Transfer transfer;
+            synchronized (this) {
+                while (unencoded.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                transfer = unencoded.poll();
+            }
+            encode(transfer);
+        }
+    }
+
+    /**
+     * encode the list of a transfer outside the lock, the receiving threads keep queueing requests meanwhile
+     */
+    private void encode(Transfer transfer) {
+        List<byte[]> chunks = JoinTransfer.encode(membership, transfer.ID, compress);
+        synchronized (this) {
+            if (transfers.get(transfer.ID) == transfer) {
+                transfer.setChunks(chunks);
+                active++;
+            }
+        }
+    }
+
+    /**
+     * send the next chunks, without the encoder thread encode the next list first
+     */
+    private void tick() {
+        if (!encoder) {
+            Transfer transfer;
+            synchronized (this) {
+                transfer = unencoded.poll();
+            }
+            if (transfer != null) {
+                encode(transfer);
+            }
+        }
+        sendChunks();
+    }
+
+    /**
+     * send the next chunks, CHUNKS_PER_TICK at most
+     */
+    private synchronized void sendChunks() {
+        if (active == 0) {
+            return;
+        }
+        int budget = CHUNKS_PER_TICK;
+        while (budget > 0 && active > 0) {
+            for (Transfer transfer : transfers.values()) {
+                if (budget == 0) {
+                    break;
+                }
+                Integer index = transfer.queue.poll();
+                if (index == null) {
+                    continue;
+                }
+                transfer.queued[index] = false;
+                if (transfer.queue.isEmpty()) {
+                    active--;
+                }
+                byte[] chunk = transfer.chunks.get(index);
+                try {
+                    transport.send(ByteBuffer.wrap(chunk), transfer.target);
+                    Metrics.sent(Metrics.JOIN, chunk.length);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                budget--;
+            }
+        }
+    }
+
+    /**
+     * forget the transfers past RETENTION and the oldest ones above MAX_TRANSFERS
+     */
+    private void prune(long now) {
+        Iterator<Transfer> iterator = transfers.values().iterator();
+        while (iterator.hasNext()) {
+            Transfer transfer = iterator.next();
+            if (transfers.size() < MAX_TRANSFERS && now - transfer.created < RETENTION) {
+                break;
+            }
+            if (!transfer.queue.isEmpty()) {
+                active--;
+            }
+            unencoded.remove(transfer);
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+import java.io.ByteArrayOutputStream;
+import java.net.DatagramPacket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**transfer of the membership list from an introducer to a joining node
+ * the list is encoded, optionally deflated, then cut into chunks that each fit in one datagram.
+ * chunk layout:
+ * byte    : version
+ * byte    : flags, FLAG_COMPRESSED, FLAG_REDIRECT
+ * varint  : transfer ID, chosen by the introducer per join request
+ * varint  : chunk index
+ * varint  : chunk count
+ * bytes   : part of the list
+ * list layout, before compression:
+ * varint  : number of members
+ * member  : varint heart beat counter, varint incarnation, then the encoded node ID, see MessageCodec
+ * a redirect lists the delegates of the zone of the joining node instead, it asks them next, see Zones
+ * a list is at most MAX_LIST_SIZE bytes, inflated, so a chunk can't make the joining node allocate more.
+ * the chunks are paced by JoinSender, a joining node that misses some asks for them by index.
+ * resend request layout, sent to the address the chunks came from:
+ * byte    : version
+ * byte    : flags, FLAG_RESEND
+ * varint  : transfer ID
+ * varint  : num of indices, at most MAX_RESEND_INDICES
+ * varints : indices of the missing chunks
+ */
+public class JoinTransfer {
+    static final byte VERSION = 2;
+    static final byte FLAG_COMPRESSED = 1;
+    static final byte FLAG_REDIRECT = 2;
+    static final byte FLAG_RESEND = 4;
+    //fits in an ethernet frame together with the IP and UDP headers
+    static final int MAX_CHUNK_SIZE = 1400;
+    //chunk header is at most version, flags and three 5-byte varints
+    private static final int MAX_CHUNK_HEADER_SIZE = 17;
+    private static final int PAYLOAD_SIZE = MAX_CHUNK_SIZE - MAX_CHUNK_HEADER_SIZE;
+    //largest list, hundreds of thousands of members
+    static final int MAX_LIST_SIZE = 16 * 1024 * 1024;
+    static final int MAX_CHUNK_COUNT = (MAX_LIST_SIZE + PAYLOAD_SIZE - 1) / PAYLOAD_SIZE;
+    //a resend request fits the 1024-byte receive buffer of the introducer
+    static final int MAX_RESEND_INDICES = 256;
+
+    /**
+     * encode a membership list into chunks
+     * @param membership membership, its current snapshot is encoded
+     * @param transferID ID of this transfer
+     * @param compress whether to deflate the list
+     * @return the chunks, one datagram payload each
+     */
+    static List<byte[]> encode(MembershipStore membership, int transferID, boolean compress) {
+        MembershipStore.Snapshot snapshot = membership.snapshot();
+        long[] counters = new long[snapshot.IDs.length];
+        long[] incarnations = new long[snapshot.IDs.length];
+        for (int i = 0; i < snapshot.IDs.length; i++) {
+            counters[i] = membership.counter(snapshot.slots[i]);
+            incarnations[i] = membership.incarnation(snapshot.slots[i]);
+        }
+        return encode(snapshot.IDs, counters, incarnations, transferID, compress ? FLAG_COMPRESSED : 0);
+    }
+
+    /**
+     * encode a redirect to the delegates of a zone
+     * @param delegates delegates the joining node asks next
+     * @param transferID ID of this transfer
+     * @return the chunks, one datagram payload each
+     */
+    static List<byte[]> encodeRedirect(NodeId[] delegates, int transferID) {
+        return encode(delegates, new long[delegates.length], new long[delegates.length], transferID, FLAG_REDIRECT);
+    }
+
+    /**
+     * encode a list of members into chunks
+     * @param flags FLAG_COMPRESSED to deflate the list, FLAG_REDIRECT for a redirect
+     */
+    static List<byte[]> encode(NodeId[] IDs, long[] counters, long[] incarnations, int transferID, byte flags) {
+        ByteBuffer listBuffer = ByteBuffer.allocate(5 + IDs.length * (20 + MessageCodec.MAX_ID_SIZE));
+        MessageCodec.putVarLong(listBuffer, IDs.length);
+        for (int i = 0; i < IDs.length; i++) {
+            MessageCodec.putVarLong(listBuffer, counters[i]);
+            MessageCodec.putVarLong(listBuffer, incarnations[i]);
+            MessageCodec.putID(listBuffer, IDs[i]);
+        }
+        boolean compress = (flags & FLAG_COMPRESSED) != 0;
+        byte[] list = new byte[listBuffer.position()];
+        listBuffer.flip();
+        listBuffer.get(list);
+        if (compress) {
+            list = deflate(list);
+        }
+
+        int chunkCount = Math.max(1, (list.length + PAYLOAD_SIZE - 1) / PAYLOAD_SIZE);
+        List<byte[]> chunks = new ArrayList<>(chunkCount);
+        ByteBuffer chunkBuffer = ByteBuffer.allocate(MAX_CHUNK_SIZE);
+        for (int index = 0; index < chunkCount; index++) {
+            chunkBuffer.clear();
+            chunkBuffer.put(VERSION);
+            chunkBuffer.put(flags);
+            MessageCodec.putVarLong(chunkBuffer, transferID);
+            MessageCodec.putVarLong(chunkBuffer, index);
+            MessageCodec.putVarLong(chunkBuffer, chunkCount);
+            int offset = index * PAYLOAD_SIZE;
+            chunkBuffer.put(list, offset, Math.min(PAYLOAD_SIZE, list.length - offset));
+            byte[] chunk = new byte[chunkBuffer.position()];
+            chunkBuffer.flip();
+            chunkBuffer.get(chunk);
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * encode a request for the missing chunks of a transfer
+     * @param transferID ID of the transfer
+     * @param indices indices of the missing chunks, the first MAX_RESEND_INDICES are asked for
+     * @param count num of indices
+     * @return the request
+     */
+    static byte[] encodeResend(int transferID, int[] indices, int count) {
+        count = Math.min(count, MAX_RESEND_INDICES);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 5 * (2 + count));
+        buffer.put(VERSION);
+        buffer.put(FLAG_RESEND);
+        MessageCodec.putVarLong(buffer, transferID);
+        MessageCodec.putVarLong(buffer, count);
+        for (int i = 0; i < count; i++) {
+            MessageCodec.putVarLong(buffer, indices[i]);
+        }
+        byte[] request = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(request);
+        return request;
+    }
+
+    /**
+     * @param data received join request
+     * @param length length of the request
+     * @return whether the request is a resend request, a join request is an ID in text
+     */
+    static boolean isResend(byte[] data, int length) {
+        return length >= 2 && data[0] == VERSION && data[1] == FLAG_RESEND;
+    }
+
+    /**
+     * @param message datagram received on the packet port, from its position
+     * @return whether the datagram is a resend request, the version differs from that of MessageCodec
+     */
+    static boolean isResend(ByteBuffer message) {
+        int position = message.position();
+        return message.remaining() >= 2 && message.get(position) == VERSION && message.get(position + 1) == FLAG_RESEND;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 2 + 64);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            outputStream.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length * 3);
+        byte[] buffer = new byte[4096];
+        while (!inflater.finished()) {
+            int length = inflater.inflate(buffer);
+            if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                inflater.end();
+                throw new DataFormatException("truncated membership list");
+            }
+            if (outputStream.size() + length > MAX_LIST_SIZE) {
+                inflater.end();
+                throw new DataFormatException("membership list above " + MAX_LIST_SIZE + " bytes");
+            }
+            outputStream.write(buffer, 0, length);
+        }
+        inflater.end();
+        return outputStream.toByteArray();
+    }
+
+    /**reassemble the chunks of one transfer on the joining node
+     * the first valid chunk fixes the transfer, chunks of other transfers are ignored,
+     * e.g. the answers of the other introducers
+     */
+    static class Receiver {
+        private int transferID = -1;
+        private boolean compressed;
+        private boolean redirect;
+        private byte[][] chunks;
+        private int received;
+        //decoded list, set by decodeList
+        private NodeId[] IDs;
+        private long[] counters;
+        private long[] incarnations;
+
+        /**
+         * take a received datagram
+         * @param packet received packet
+         * @return false if the datagram is malformed or belongs to another transfer
+         */
+        boolean accept(DatagramPacket packet) {
+            ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+            try {
+                if (buffer.get() != VERSION) {
+                    return false;
+                }
+                byte flags = buffer.get();
+                int chunkTransferID = (int) MessageCodec.getVarLong(buffer);
+                int index = (int) MessageCodec.getVarLong(buffer);
+                int chunkCount = (int) MessageCodec.getVarLong(buffer);
+                if (index < 0 || index >= chunkCount) {
+                    return false;
+                }
+                if (chunks == null) {
+                    if (chunkCount > MAX_CHUNK_COUNT || (flags & FLAG_RESEND) != 0) {
+                        return false;
+                    }
+                    transferID = chunkTransferID;
+                    compressed = (flags & FLAG_COMPRESSED) != 0;
+                    redirect = (flags & FLAG_REDIRECT) != 0;
+                    chunks = new byte[chunkCount][];
+                } else if (chunkTransferID != transferID || chunkCount != chunks.length) {
+                    return false;
+                }
+                if (chunks[index] == null) {
+                    chunks[index] = new byte[buffer.remaining()];
+                    buffer.get(chunks[index]);
+                    received++;
+                }
+                return true;
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @return whether any chunk has been received
+         */
+        boolean isStarted() {
+            return chunks != null;
+        }
+
+        /**
+         * @return ID of the transfer, -1 before the first chunk
+         */
+        int transferID() {
+            return transferID;
+        }
+
+        /**
+         * @param indices filled with the indices of the chunks not received yet
+         * @return num of indices put in indices
+         */
+        int missing(int[] indices) {
+            int count = 0;
+            for (int i = 0; chunks != null && i < chunks.length && count < indices.length; i++) {
+                if (chunks[i] == null) {
+                    indices[count++] = i;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return whether all the chunks of the transfer have been received
+         */
+        boolean isComplete() {
+            return chunks != null && received == chunks.length;
+        }
+
+        /**
+         * @return whether the transfer is a redirect to the delegates of the zone of the joining node
+         */
+        boolean isRedirect() {
+            return redirect;
+        }
+
+        /**
+         * decode the complete list into the membership list
+         * @param membership membership the list is added to
+         * @param codec codec used to decode the node IDs
+         * @return false if the list is corrupt, nothing is added then
+         */
+        boolean readInto(MembershipStore membership, MessageCodec codec) {
+            if (!decodeList(codec)) {
+                return false;
+            }
+            membership.addAll(IDs, counters, incarnations, Daemon.clock.getAsLong());
+            return true;
+        }
+
+        /**
+         * decode a complete redirect
+         * @param codec codec used to decode the node IDs
+         * @return the delegates to ask, null if the list is corrupt
+         */
+        NodeId[] readRedirect(MessageCodec codec) {
+            return decodeList(codec) ? IDs : null;
+        }
+
+        private boolean decodeList(MessageCodec codec) {
+            int length = 0;
+            for (byte[] chunk : chunks) {
+                length += chunk.length;
+            }
+            byte[] list = new byte[length];
+            int offset = 0;
+            for (byte[] chunk : chunks) {
+                System.arraycopy(chunk, 0, list, offset, chunk.length);
+                offset += chunk.length;
+            }
+
+            try {
+                if (compressed) {
+                    list = inflate(list);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(list);
+                long memberCount = MessageCodec.getVarLong(buffer);
+                if (memberCount < 0 || memberCount > list.length) {
+                    return false;
+                }
+                counters = new long[(int) memberCount];
+                incarnations = new long[counters.length];
+                IDs = new NodeId[counters.length];
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] = MessageCodec.getVarLong(buffer);
+                    incarnations[i] = MessageCodec.getVarLong(buffer);
+                    IDs[i] = codec.getID(buffer);
+                }
+                return true;
+            } catch (DataFormatException | BufferUnderflowException | IllegalArgumentException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -1,21 +1,26 @@
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 /**listen to incoming messages, do certain options
- * two kinds of messages:
- * 0_...:heartbeat messages, sent by heartbeat thread
- * 1_...:gossip messages, three kinds
- * 0:add, sent by introducer thread, new node join the group
- * 1:leave, sent by voluntarily leave command
- * 2:remove, sent by monitor thread, didn't receive heartbeat, node is suspected to be down
+ * messages are encoded by MessageCodec, three kinds of messages:
+ * heartbeat messages, sent by heartbeat thread, may carry piggybacked gossip updates
+ * probe messages, PING, ACK and PING_REQ of the SWIM detector, answered here, may carry piggybacked gossip updates
+ * gossip messages, three kinds
+ * ADD:add, sent by introducer thread, new node join the group
+ * LEAVE:leave, sent by voluntarily leave command
+ * REMOVE:remove, sent when the suspicion of a node timed out, node is considered down
+ * SUSPECT:suspect, sent by the failure detector, node missed heartbeats or probes, see Suspicion
  * Created by haosun on 11/3/17.
  */
 public class ListeningThread extends Thread {
     //socket listening to incoming messages
     private DatagramSocket serverSocket;
-    //socket to relay gossip if necessary
+    //socket acks and relayed probes are sent from
     private DatagramSocket sendSocket;
 
     ListeningThread() {
@@ -30,85 +35,232 @@ public class ListeningThread extends Thread {
 
     /**
      * update membership list according to received message type
-     * four types: "HB", "ADD", "LEAVE", "REMOVE"
+     * five types: HEARTBEAT, ADD, LEAVE, REMOVE, SUSPECT, see Suspicion for the incarnation rules
      * @param ID node ID
      * @param messageType message type
      * @param counter heartbeat counter
+     * @param incarnation incarnation of the node
+     * @param transport transport a removed node that still sends heartbeats is told with
+     * @return whether the membership list changed, false if the update is stale or known already
      */
-    private void updateMembershipList(String ID, String messageType, long counter) {
-        synchronized (Daemon.membershipList) {
-            long[] memberDetail = Daemon.membershipList.get(ID);
-            switch (messageType) {
-                case "HEARTBEAT":
-                    if (memberDetail == null) {
-                        Daemon.membershipList.put(ID, new long[]{counter, System.currentTimeMillis()});
-                        Daemon.updateNeighbours();
-                        Protocol.sendGossip(ID, "ADD", counter, 2, 2, sendSocket);
-                        Daemon.writeLog("HEARTBEAT REJOIN", ID);
-                    } else if (counter > memberDetail[0]) {
-                        Daemon.membershipList.put(ID, new long[]{counter, System.currentTimeMillis()});
-                        Daemon.writeLog("HEARTBEAT NEIGHBOR", ID);
-                    }
-                    break;
-                case "ADD":
-                    if (memberDetail == null || counter > memberDetail[0]) {
-                        Daemon.membershipList.put(ID, new long[]{counter, System.currentTimeMillis()});
-                        if (memberDetail == null) {
-                            Daemon.updateNeighbours();
-                            Daemon.writeLog("GOSSIP ADD", ID);
+    private static boolean updateMembershipList(NodeId ID, Action messageType, long counter, long incarnation,
+                                                Transport transport) {
+        long now = Daemon.clock.getAsLong();
+        switch (messageType) {
+            case HEARTBEAT:
+                switch (Daemon.membership.heartbeat(ID, counter, now)) {
+                    case UNKNOWN:
+                        if (Daemon.membership.add(ID, counter, incarnation, now)) {
+                            Daemon.seenUpdates.add(ID, Action.ADD, incarnation, now);
+                            Daemon.updates.add(ID, Action.ADD, counter, incarnation, Protocol.gossipTTL());
+                            Metrics.rejoins.increment();
+                            Daemon.writeLog("HEARTBEAT REJOIN", ID);
+                            return true;
                         }
-                    }
-                    break;
-                case "LEAVE":
-                    if (memberDetail != null) {
-                        Daemon.membershipList.remove(ID);
-                        Daemon.updateNeighbours();
-                        Daemon.writeLog("GOSSIP LEAVE", ID);
-                    }
-                    break;
-                case "REMOVE":
-                    if (memberDetail != null) {
-                        Daemon.membershipList.remove(ID);
-                        Daemon.updateNeighbours();
-                        Daemon.writeLog("GOSSIP REMOVE", ID);
-                    }
-                    break;
-                default:
-                    System.err.println("unknown message type : " + messageType);
-                    System.exit(1);
-                    break;
-            }
+                        //removed with this incarnation, tell the node so it refutes, the group doesn't re-add it
+                        long removedWith = Daemon.membership.tombstone(ID);
+                        if (removedWith >= 0) {
+                            Protocol.sendUpdate(ID, Action.REMOVE, counter, removedWith, ID, transport);
+                        }
+                        return false;
+                    case UPDATED:
+                        raiseIncarnation(ID, incarnation);
+                        Daemon.suspicion.alive(ID);
+                        //only neighbours heartbeat at the heartbeat interval, the fanout heartbeats of other
+                        //members arrive at irregular gaps and would skew phi once they become neighbours
+                        if (Daemon.phi != null && Daemon.membership.snapshot().isNeighbour(ID)) {
+                            int slot = Daemon.membership.slotOf(ID);
+                            if (slot >= 0) {
+                                Daemon.phi.heartbeat(slot, ID, now);
+                            }
+                        }
+                        Daemon.writeLog("HEARTBEAT NEIGHBOR", ID);
+                        return true;
+                    default:
+                        return raiseIncarnation(ID, incarnation);
+                }
+            case ADD:
+                if (ID.equals(Daemon.ID)) {
+                    return false;
+                }
+                if (raiseIncarnation(ID, incarnation)) {
+                    return true;
+                }
+                if (Daemon.membership.add(ID, counter, incarnation, now)) {
+                    Daemon.writeLog("GOSSIP ADD", ID);
+                    return true;
+                }
+                return false;
+            case LEAVE:
+                if (Daemon.membership.remove(ID, counter, incarnation)) {
+                    Daemon.suspicion.cancel(ID);
+                    Daemon.writeLog("GOSSIP LEAVE", ID);
+                    return true;
+                }
+                return false;
+            case REMOVE:
+                if (Daemon.membership.remove(ID, counter, incarnation)) {
+                    Daemon.suspicion.cancel(ID);
+                    Daemon.writeLog("GOSSIP REMOVE", ID);
+                    return true;
+                }
+                return false;
+            case SUSPECT:
+                return Daemon.suspicion.onSuspect(ID, counter, incarnation);
+            default:
+                System.err.println("unknown message type : " + messageType);
+                System.exit(1);
+                return false;
+        }
+    }
+
+    /**
+     * a member announced a higher incarnation, it refuted a suspicion
+     * @return whether the incarnation was raised
+     */
+    static boolean raiseIncarnation(NodeId ID, long incarnation) {
+        int slot = Daemon.membership.slotOf(ID);
+        if (slot < 0 || incarnation <= Daemon.membership.incarnation(slot)
+                || !Daemon.membership.raiseIncarnation(ID, incarnation)) {
+            return false;
+        }
+        Daemon.suspicion.cancel(ID);
+        Daemon.writeLog("REFUTED", ID);
+        return true;
+    }
+
+    /**
+     * apply a gossiped update the first time it arrives, and queue it to be relayed if TTL allows.
+     * only updates that changed the membership list are relayed, stale ones stop here.
+     * a suspicion or removal of this node is refuted every time it arrives, copies included, so every
+     * node still spreading a stale one hears the current incarnation
+     * @param codec codec holding the decoded update
+     * @param from node the message came from, null if the message doesn't say
+     * @param transport transport of the receiving thread
+     */
+    private static void receiveGossip(MessageCodec codec, NodeId from, Transport transport) {
+        if ((codec.action == Action.SUSPECT || codec.action == Action.REMOVE) && codec.ID.equals(Daemon.ID)) {
+            Daemon.suspicion.refute(codec.incarnation, from, transport);
+            return;
+        }
+        if (!Daemon.seenUpdates.add(codec.ID, codec.action, codec.incarnation, Daemon.clock.getAsLong())) {
+            //arrived over another path before, it was relayed and applied then
+            Metrics.gossipDuplicates.increment();
+            return;
+        }
+        if (codec.origin != null && Daemon.tracing != null) {
+            Daemon.tracing.received(codec);
+        }
+        if (!updateMembershipList(codec.ID, codec.action, codec.counter, codec.incarnation, transport)) {
+            Metrics.gossipStale.increment();
+            return;
+        }
+        if (codec.TTL > 1) {
+            Daemon.updates.add(codec.ID, codec.action, codec.counter, codec.incarnation, codec.TTL - 1,
+                    codec.origin, codec.originTime, codec.hops + 1);
+            Metrics.gossipRelays.increment();
+        }
+        //Daemon.writeLog("GOSSIP", codec.ID);
+    }
+
+    /**
+     * decode a received message and apply the heartbeat and all the gossiped updates it carries
+     * @param codec codec of the receiving thread
+     * @param receivedBuffer buffer holding the message between position and limit
+     * @param sender address the message came from
+     * @param transport transport probes are answered with
+     */
+    static void handleMessage(MessageCodec codec, ByteBuffer receivedBuffer, SocketAddress sender, Transport transport) {
+        int size = receivedBuffer.remaining();
+        if (JoinTransfer.isResend(receivedBuffer)) {
+            //a joining node asks for chunks the JoinSender of this node sent from the packet port
+            Metrics.received(Metrics.JOIN, size);
+            Daemon.joinSender.resend(receivedBuffer, (InetSocketAddress) sender);
+            return;
+        }
+        if (!codec.decode(receivedBuffer)) {
+            System.err.println("malformed message from " + sender);
+            return;
+        }
+        Metrics.received(codec.type, size);
+        switch (codec.type) {
+            case MessageCodec.TYPE_HEARTBEAT:
+                updateMembershipList(codec.ID, Action.HEARTBEAT, codec.counter, codec.incarnation, transport);
+                //Daemon.writeLog("HEARTBEAT", codec.ID);
+                break;
+            case MessageCodec.TYPE_GOSSIP:
+                receiveGossip(codec, null, transport);
+                break;
+            case MessageCodec.TYPE_PING:
+                //ack to the packet port of the sender, the subject is who the ack is finally for
+                Protocol.sendProbe(MessageCodec.TYPE_ACK, Daemon.ID, codec.counter, codec.subject, codec.ID, transport);
+                Daemon.suspicion.alive(codec.ID);
+                break;
+            case MessageCodec.TYPE_PING_REQ:
+                //ping the subject on behalf of the sender, the ack comes back here to be relayed
+                Protocol.sendProbe(MessageCodec.TYPE_PING, Daemon.ID, codec.counter, codec.ID, codec.subject, transport);
+                Daemon.suspicion.alive(codec.ID);
+                break;
+            case MessageCodec.TYPE_ACK:
+                if (!codec.subject.equals(Daemon.ID)) {
+                    Protocol.sendProbe(MessageCodec.TYPE_ACK, codec.ID, codec.counter, codec.subject, codec.subject, transport);
+                } else if (Daemon.swim != null) {
+                    Daemon.swim.onAck(codec.ID, codec.counter);
+                }
+                break;
+            case MessageCodec.TYPE_SYNC:
+                if (Daemon.antiEntropy != null) {
+                    Daemon.antiEntropy.onSync(codec, transport);
+                }
+                return;
+            case MessageCodec.TYPE_DELTA:
+                //the updates are entries of the sender's membership list, not gossip
+                NodeId syncSender = codec.ID;
+                while (Daemon.antiEntropy != null && codec.hasNextUpdate() && codec.nextUpdate(receivedBuffer)) {
+                    Daemon.antiEntropy.onEntry(codec.ID, codec.action, codec.counter, codec.incarnation, syncSender,
+                            transport);
+                }
+                return;
+            case MessageCodec.TYPE_JOIN:
+                //a joining node that got no answer from the introducers, any member can let it in
+                if (Daemon.membership.slotOf(Daemon.ID) >= 0 && sender instanceof InetSocketAddress) {
+                    IntroducerThread.admit(codec.ID, codec.incarnation, (InetSocketAddress) sender);
+                }
+                return;
+            case MessageCodec.TYPE_ZONES:
+                //zone summaries, not members of this zone, see Zones
+                if (Daemon.zones != null) {
+                    Daemon.zones.onZones(codec, receivedBuffer, transport);
+                }
+                return;
+        }
+        //heartbeats and probes are sent by a member, a refutation goes back to it
+        NodeId from = codec.ID;
+        while (codec.hasNextUpdate() && codec.nextUpdate(receivedBuffer)) {
+            receiveGossip(codec, from, transport);
         }
     }
 
     @Override
     public void run() {
-        byte[] receivedMessage = new byte[1024];
+        byte[] receivedMessage = new byte[MessageCodec.MAX_MESSAGE_SIZE];
+        ByteBuffer receivedBuffer = ByteBuffer.wrap(receivedMessage);
+        DatagramPacket receivedPacket = new DatagramPacket(receivedMessage, receivedMessage.length);
+        MessageCodec codec = new MessageCodec();
+        Transport transport = new SocketTransport(sendSocket);
 
         while (true) {
             try {
-                DatagramPacket receivedPacket = new DatagramPacket(receivedMessage, receivedMessage.length);
+                receivedPacket.setLength(receivedMessage.length);
                 serverSocket.receive(receivedPacket);
-                String message = new String(receivedPacket.getData(), 0, receivedPacket.getLength());
-                String[] parsedMessage = message.split("_");
-                String messageFlag = parsedMessage[0];
-                switch (messageFlag) {
-                    case "0":
-                        updateMembershipList(parsedMessage[1], "HEARTBEAT", Long.parseLong(parsedMessage[2]));
-                        //Daemon.writeLog("HEARTBEAT", parsedMessage[1]);
-                        break;
-                    case "1":
-                        int TTL = Integer.parseInt(parsedMessage[4]);
-                        if (TTL > 1) {
-                            Protocol.sendGossip(parsedMessage[1], parsedMessage[2], Long.parseLong(parsedMessage[3]),
-                                    --TTL, 2, sendSocket);
-                        }
-                        updateMembershipList(parsedMessage[1], parsedMessage[2], Long.parseLong(parsedMessage[3]));
-                        //Daemon.writeLog("GOSSIP", parsedMessage[1]);
-                        break;
-                }
+                receivedBuffer.clear();
+                receivedBuffer.limit(receivedPacket.getLength());
+                handleMessage(codec, receivedBuffer, receivedPacket.getSocketAddress(), transport);
             } catch (IOException e) {
                 e.printStackTrace();
+            } catch (RuntimeException e) {
+                //one bad packet must not stop the receiving thread
+                e.printStackTrace();
             }
         }
     }
@@ -0,0 +1,273 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**membership change events for applications, delivered to subscribed listeners
+ * every membership change passed to Daemon.writeLog is turned into an event, the new state of one member:
+ * JOINED    : INITIAL ADD, GOSSIP ADD, SYNC ADD, HEARTBEAT REJOIN, JOIN of this node
+ * SUSPECTED : SUSPECT, GOSSIP SUSPECT
+ * ALIVE     : SUSPECT CLEARED, REFUTED, the member is alive again
+ * LEFT      : GOSSIP LEAVE
+ * FAILED    : FAILURE, SUSPECT REMOVE, GOSSIP REMOVE, SYNC REMOVE
+ * protocol threads only put the event in a bounded map of pending events by member, a dispatcher thread
+ * waits batchDelay (configuration file eventBatchDelay) after the first one and delivers everything
+ * pending as one batch, so listeners never run on, nor slow down, the protocol threads.
+ * a member changing again before delivery is coalesced into one event with its latest state, and a
+ * flap that ends where it began, SUSPECTED then ALIVE or JOINED then LEFT or FAILED, is not delivered.
+ * SUSPECTED then ALIVE with a LEFT or FAILED in between is a member that came back, it is delivered.
+ * a member that JOINED and is still a member is delivered as JOINED with its latest incarnation, a
+ * listener never sees ALIVE or SUSPECTED for a member it wasn't told about.
+ * events of members not pending are dropped while capacity (eventQueueCapacity) members are pending.
+ * delivered events are numbered one after the other, dropped events skip their numbers, so a listener
+ * that sees a gap resyncs: it reads lastSequence, then the membership list, and applies the events
+ * numbered above. events are states, applying one the list already shows changes nothing.
+ */
+public class MembershipEvents {
+    /**new state of a member*/
+    public enum Type {
+        JOINED,
+        SUSPECTED,
+        ALIVE,
+        LEFT,
+        FAILED
+    }
+
+    /**one membership change, never modified
+     */
+    public static final class Event {
+        //position in the feed, one above the previous event unless events were dropped
+        public final long sequence;
+        public final Type type;
+        public final NodeId ID;
+        //incarnation of the member, for LEFT and FAILED the one it was removed with
+        public final long incarnation;
+        //local time millis of the change, of the latest one if changes were coalesced
+        public final long time;
+
+        private Event(long sequence, Type type, NodeId ID, long incarnation, long time) {
+            this.sequence = sequence;
+            this.type = type;
+            this.ID = ID;
+            this.incarnation = incarnation;
+            this.time = time;
+        }
+
+        @Override
+        public String toString() {
+            return sequence + " " + type + " " + ID + " incarnation : " + incarnation + " time : " + time;
+        }
+    }
+
+    /**receives the batches of events on the dispatcher thread
+     */
+    public interface Listener {
+        /**
+         * @param events events in sequence order, the list must not be modified
+         */
+        void onEvents(List<Event> events);
+    }
+
+    /**change of a member waiting for delivery, guarded by the MembershipEvents
+     */
+    private static final class Pending {
+        //type of the first change since the last delivery
+        final Type first;
+        //whether the member left or failed since the last delivery
+        boolean removed;
+        Type type;
+        long incarnation;
+        long time;
+
+        Pending(Type type, long incarnation, long time) {
+            this.first = type;
+            this.removed = type == Type.LEFT || type == Type.FAILED;
+            this.type = type;
+            this.incarnation = incarnation;
+            this.time = time;
+        }
+    }
+
+    //dispatcher wakes up at least this often
+    private static final long DISPATCHER_INTERVAL = 1000;
+
+    //num of members with pending events
+    private final int capacity;
+    //time events are collected after the first one before they are delivered
+    private final long batchDelay;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    //member -> its pending change, in order of the first change, guarded by this
+    private final Map<NodeId, Pending> pending = new LinkedHashMap<>();
+    //events dropped since the last delivery, their sequence numbers are skipped
+    private long dropped;
+    //sequence of the last delivered event
+    private volatile long lastSequence;
+    private Thread dispatcher;
+
+    /**
+     * constructor, the dispatcher starts with the first subscription
+     * @param capacity num of members with pending events
+     * @param batchDelay time events are collected after the first one before they are delivered
+     */
+    MembershipEvents(int capacity, long batchDelay) {
+        this.capacity = Math.max(capacity, 1);
+        this.batchDelay = batchDelay;
+    }
+
+    /**
+     * subscribe a listener, it receives the events published from now on
+     * @param listener the listener
+     */
+    public synchronized void subscribe(Listener listener) {
+        listeners.add(listener);
+        if (dispatcher == null) {
+            dispatcher = new Thread(this::dispatch, "MembershipEvents");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+    }
+
+    /**
+     * @param listener a subscribed listener, it receives no batch after this returns
+     */
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return sequence of the last delivered event, read it before the membership list to resync
+     */
+    public long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * turn a logged action into an event, never blocks on listeners
+     * @param action action passed to Daemon.writeLog
+     * @param ID the node ID
+     */
+    void publish(String action, NodeId ID) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        Type type = typeOf(action);
+        if (type == null) {
+            return;
+        }
+        long incarnation;
+        if (type == Type.LEFT || type == Type.FAILED) {
+            incarnation = Math.max(Daemon.membership.tombstone(ID), 0);
+        } else {
+            int slot = Daemon.membership.slotOf(ID);
+            incarnation = slot >= 0 ? Daemon.membership.incarnation(slot) : 0;
+        }
+        long time = Daemon.clock.getAsLong();
+        synchronized (this) {
+            Pending change = pending.get(ID);
+            if (change == null) {
+                if (pending.size() == capacity) {
+                    dropped++;
+                    Metrics.eventsDropped.increment();
+                    return;
+                }
+                pending.put(ID, new Pending(type, incarnation, time));
+                if (pending.size() == 1) {
+                    notify();
+                }
+                return;
+            }
+            Metrics.eventsCoalesced.increment();
+            boolean removed = type == Type.LEFT || type == Type.FAILED;
+            //a suspected member that failed and joined again before it is alive is a new member, not a flap
+            if ((change.first == Type.SUSPECTED && type == Type.ALIVE && !change.removed)
+                    || (change.first == Type.JOINED && removed)) {
+                pending.remove(ID);
+                return;
+            }
+            change.removed |= removed;
+            //a member that joined since the last delivery stays JOINED, unless it left or failed above
+            if (change.first != Type.JOINED) {
+                change.type = type;
+            }
+            change.incarnation = incarnation;
+            change.time = time;
+        }
+    }
+
+    private static Type typeOf(String action) {
+        switch (action) {
+            case "JOIN":
+            case "INITIAL ADD":
+            case "HEARTBEAT REJOIN":
+            case "GOSSIP ADD":
+            case "SYNC ADD":
+                return Type.JOINED;
+            case "SUSPECT":
+            case "GOSSIP SUSPECT":
+                return Type.SUSPECTED;
+            case "SUSPECT CLEARED":
+            case "REFUTED":
+                return Type.ALIVE;
+            case "GOSSIP LEAVE":
+                return Type.LEFT;
+            case "FAILURE":
+            case "SUSPECT REMOVE":
+            case "GOSSIP REMOVE":
+            case "SYNC REMOVE":
+                return Type.FAILED;
+            default:
+                return null;
+        }
+    }
+
+    private void dispatch() {
+        while (true) {
+            List<Event> batch;
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty()) {
+                        wait(DISPATCHER_INTERVAL);
+                    }
+                    //collect the changes that follow the first one, a flap is coalesced before delivery
+                    long end = Daemon.clock.getAsLong() + batchDelay;
+                    for (long now = Daemon.clock.getAsLong(); now < end; now = Daemon.clock.getAsLong()) {
+                        wait(end - now);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long sequence = lastSequence + dropped;
+                dropped = 0;
+                batch = new ArrayList<>(pending.size());
+                Iterator<Map.Entry<NodeId, Pending>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<NodeId, Pending> entry = iterator.next();
+                    Pending change = entry.getValue();
+                    batch.add(new Event(++sequence, change.type, entry.getKey(), change.incarnation, change.time));
+                    iterator.remove();
+                }
+                lastSequence = sequence;
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            long now = Daemon.clock.getAsLong();
+            for (Event event : batch) {
+                Metrics.eventDeliveryTime.record(now - event.time);
+            }
+            Metrics.eventsDelivered.add(batch.size());
+            List<Event> events = Collections.unmodifiableList(batch);
+            for (Listener listener : listeners) {
+                try {
+                    listener.onEvents(events);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,362 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**membership list kept on disk, so a restarted node comes back with its old ID and a warm view
+ * the file is an append-only log. every snapshotInterval ms (configuration file) the members added and
+ * removed since the last write are appended, nothing is written while the membership doesn't change.
+ * Daemon.timers only hands the membership snapshot over, a writer thread appends, compacts and forces
+ * the log, so a slow disk never holds up the timers.
+ * when the log holds more than twice the records of the list it describes, it is rewritten with one
+ * record per member into a temporary file that then replaces it.
+ * the own heartbeat counter is not logged per heartbeat: the log reserves COUNTER_RESERVATION counters
+ * ahead and a restarted node starts above the reservation, so its heartbeats are always newer than
+ * anything the group saw from it before. it also starts one incarnation above the logged one, so a
+ * group that removed it while it was down takes it back, see Suspicion.
+ * file layout:
+ * int     : MAGIC
+ * byte    : version
+ * records : byte body length, body, int CRC32 of the body
+ * body layout:
+ * byte    : kind, SELF, ADD or REMOVE
+ * varint  : SELF the reserved counter, ADD the counter of the member, REMOVE 0
+ * varint  : incarnation, SELF the own one, ADD the one of the member, REMOVE 0
+ * bytes   : encoded node ID, see MessageCodec
+ * a torn or corrupt record ends the log, it and everything after it are dropped on load.
+ */
+public class MembershipSnapshot {
+    static final int MAGIC = 0x4d454d42;
+    static final byte VERSION = 2;
+    private static final byte SELF = 0;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int HEADER_SIZE = 5;
+    private static final int MAX_BODY_SIZE = 21 + MessageCodec.MAX_ID_SIZE;
+    //own counters reserved per SELF record, a new one is written when half of them are used
+    static final long COUNTER_RESERVATION = 1000;
+    //a log is compacted only above this num of records, whatever the size of the list
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    /**membership list read from a snapshot file
+     */
+    static class Loaded {
+        final NodeId self;
+        //reserved counter, the node continues above it
+        final long counter;
+        //incarnation to restart with, one above the logged one
+        final long incarnation;
+        final NodeId[] IDs;
+        final long[] counters;
+        final long[] incarnations;
+
+        private Loaded(NodeId self, long counter, long incarnation, NodeId[] IDs, long[] counters, long[] incarnations) {
+            this.self = self;
+            this.counter = counter;
+            this.incarnation = incarnation;
+            this.IDs = IDs;
+            this.counters = counters;
+            this.incarnations = incarnations;
+        }
+    }
+
+    private final Path path;
+    //log state below is only used by the writer thread, and by delete once the writer stopped
+    private FileChannel channel;
+    //members the log describes
+    private final Set<NodeId> written = new HashSet<>();
+    private int records;
+    private long reserved;
+    private long writtenIncarnation;
+    private long writtenVersion = -1;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    //latest snapshot and own state handed over by Daemon.timers, null once taken, guarded by this
+    private MembershipStore.Snapshot handed;
+    private long handedCounter;
+    private long handedIncarnation;
+    //set by delete, nothing is written after it, guarded by this
+    private boolean deleted;
+    private Thread writer;
+
+    /**
+     * constructor, the log is written from scratch on the first write
+     * @param path path of the snapshot file
+     */
+    MembershipSnapshot(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * hand the membership snapshot to the writer every interval on Daemon.timers
+     * @param interval interval between two writes
+     */
+    synchronized void start(long interval) {
+        writer = new Thread(this::drain, "MembershipSnapshotWriter");
+        writer.setDaemon(true);
+        writer.start();
+        Daemon.timers.scheduleAtFixedRate(this::hand, 0, interval);
+    }
+
+    /**
+     * hand the current snapshot and own state to the writer, never touches the disk
+     */
+    private void hand() {
+        MembershipStore membership = Daemon.membership;
+        MembershipStore.Snapshot snapshot = membership.snapshot();
+        int selfSlot = membership.slotOf(Daemon.ID);
+        long counter = selfSlot >= 0 ? membership.counter(selfSlot) : 0;
+        long incarnation = selfSlot >= 0 ? membership.incarnation(selfSlot) : 0;
+        synchronized (this) {
+            if (deleted) {
+                return;
+            }
+            handed = snapshot;
+            handedCounter = counter;
+            handedIncarnation = incarnation;
+            notify();
+        }
+    }
+
+    /**
+     * writer thread, writes the latest handed snapshot, an older one not written yet is skipped
+     */
+    private void drain() {
+        while (true) {
+            MembershipStore.Snapshot snapshot;
+            long counter;
+            long incarnation;
+            synchronized (this) {
+                while (handed == null && !deleted) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (deleted) {
+                    return;
+                }
+                snapshot = handed;
+                counter = handedCounter;
+                incarnation = handedIncarnation;
+                handed = null;
+            }
+            try {
+                write(snapshot, counter, incarnation);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * append the members added and removed since the last write, and a new reservation if needed
+     * @param snapshot membership snapshot to write
+     * @param counter own heartbeat counter
+     * @param incarnation own incarnation
+     * @throws IOException if the log could not be written
+     */
+    private void write(MembershipStore.Snapshot snapshot, long counter, long incarnation) throws IOException {
+        MembershipStore membership = Daemon.membership;
+        boolean reserve = counter + COUNTER_RESERVATION / 2 >= reserved || incarnation != writtenIncarnation;
+        if (snapshot.version == writtenVersion && !reserve) {
+            return;
+        }
+        if (channel == null || records > Math.max(MIN_COMPACT_RECORDS, 2 * (snapshot.IDs.length + 1))) {
+            compact(snapshot, counter, incarnation);
+            return;
+        }
+
+        buffer.clear();
+        if (reserve) {
+            reserved = counter + COUNTER_RESERVATION;
+            writtenIncarnation = incarnation;
+            append(SELF, reserved, incarnation, Daemon.ID);
+        }
+        Set<NodeId> members = new HashSet<>(snapshot.IDs.length * 2);
+        for (int i = 0; i < snapshot.IDs.length; i++) {
+            members.add(snapshot.IDs[i]);
+            if (written.add(snapshot.IDs[i])) {
+                append(ADD, membership.counter(snapshot.slots[i]), membership.incarnation(snapshot.slots[i]),
+                        snapshot.IDs[i]);
+            }
+        }
+        List<NodeId> removed = new ArrayList<>();
+        for (NodeId ID : written) {
+            if (!members.contains(ID)) {
+                removed.add(ID);
+                append(REMOVE, 0, 0, ID);
+            }
+        }
+        written.removeAll(removed);
+        flushBuffer();
+        channel.force(false);
+        writtenVersion = snapshot.version;
+    }
+
+    /**
+     * rewrite the log with one record per member
+     */
+    private void compact(MembershipStore.Snapshot snapshot, long counter, long incarnation) throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        written.clear();
+        records = 0;
+        buffer.clear();
+        buffer.putInt(MAGIC).put(VERSION);
+        reserved = counter + COUNTER_RESERVATION;
+        writtenIncarnation = incarnation;
+        append(SELF, reserved, incarnation, Daemon.ID);
+        for (int i = 0; i < snapshot.IDs.length; i++) {
+            written.add(snapshot.IDs[i]);
+            append(ADD, Daemon.membership.counter(snapshot.slots[i]), Daemon.membership.incarnation(snapshot.slots[i]),
+                    snapshot.IDs[i]);
+        }
+        flushBuffer();
+        channel.force(false);
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writtenVersion = snapshot.version;
+    }
+
+    private void append(byte kind, long counter, long incarnation, NodeId ID) throws IOException {
+        if (buffer.remaining() < 5 + MAX_BODY_SIZE) {
+            flushBuffer();
+        }
+        int start = buffer.position();
+        buffer.put((byte) 0);
+        buffer.put(kind);
+        MessageCodec.putVarLong(buffer, counter);
+        MessageCodec.putVarLong(buffer, incarnation);
+        MessageCodec.putID(buffer, ID);
+        int length = buffer.position() - start - 1;
+        buffer.put(start, (byte) length);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start + 1, length);
+        buffer.putInt((int) crc.getValue());
+        records++;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * stop the writer and delete the snapshot file, the next start joins with a new ID
+     */
+    void delete() {
+        Thread writer;
+        synchronized (this) {
+            deleted = true;
+            notify();
+            writer = this.writer;
+        }
+        try {
+            if (writer != null) {
+                writer.join();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            Files.deleteIfExists(path);
+        } catch (InterruptedException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * read a snapshot file
+     * @param path path of the snapshot file
+     * @param codec codec used to decode the node IDs
+     * @return the membership list, null if there is no file or it has no valid own record
+     */
+    static Loaded load(Path path, MessageCodec codec) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            System.err.println("invalid snapshot file " + path);
+            return null;
+        }
+
+        NodeId self = null;
+        long counter = 0;
+        long incarnation = 0;
+        //member -> {counter, incarnation}
+        Map<NodeId, long[]> members = new LinkedHashMap<>();
+        CRC32 crc = new CRC32();
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            try {
+                int length = buffer.get() & 0xff;
+                ByteBuffer body = ByteBuffer.wrap(data, start + 1, length);
+                buffer.position(start + 1 + length);
+                crc.reset();
+                crc.update(data, start + 1, length);
+                if (buffer.getInt() != (int) crc.getValue()) {
+                    throw new IllegalArgumentException();
+                }
+                byte kind = body.get();
+                long value = MessageCodec.getVarLong(body);
+                long recordIncarnation = MessageCodec.getVarLong(body);
+                NodeId ID = codec.getID(body);
+                if (kind == SELF) {
+                    self = ID;
+                    counter = value;
+                    incarnation = recordIncarnation;
+                } else if (kind == ADD) {
+                    members.put(ID, new long[]{value, recordIncarnation});
+                } else if (kind == REMOVE) {
+                    members.remove(ID);
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                System.err.println("snapshot file " + path + " is cut at byte " + start);
+                break;
+            }
+        }
+        if (self == null) {
+            return null;
+        }
+        members.remove(self);
+        NodeId[] IDs = new NodeId[members.size()];
+        long[] counters = new long[members.size()];
+        long[] incarnations = new long[members.size()];
+        int i = 0;
+        for (Map.Entry<NodeId, long[]> member : members.entrySet()) {
+            IDs[i] = member.getKey();
+            counters[i] = member.getValue()[0];
+            incarnations[i++] = member.getValue()[1];
+        }
+        return new Loaded(self, counter, incarnation + 1, IDs, counters, incarnations);
+    }
+}
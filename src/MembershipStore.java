@@ -0,0 +1,624 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**membership list and neighbours of this node
+ * every member is interned to a dense int slot. counter and local time of the last heartbeat live
+ * next to each other in primitive arrays and are updated in place, so a heartbeat allocates nothing.
+ * readers take an immutable, versioned snapshot with one volatile read and never lock.
+ * heartbeats update a slot with a CAS on its counter, also without locking, and check after the CAS that
+ * the slot still belongs to the member.
+ * only structural changes, members joining or leaving, go through the writer lock,
+ * rebuild the ring and publish a new snapshot.
+ * neighbours are the k closest members on each side of this node in the ring. they are only
+ * recomputed when a change can touch them, and neighbours that stay keep their local time.
+ * every member also has an incarnation, raised only by the member itself to refute a suspicion, and a
+ * status, ALIVE or SUSPECT. a suspicion or removal with a lower incarnation than the known one is stale
+ * and ignored, see Suspicion. incarnation and status change rarely and only under the writer lock.
+ * removed members are remembered for TOMBSTONE_TIMEOUT with their last counter and incarnation, so
+ * anti-entropy can tell a member this node removed from one it never heard of, and a removed member
+ * comes back only with a higher incarnation. this node is never removed from its own list.
+ */
+public class MembershipStore {
+    /**immutable view of the membership, published after every structural change
+     * the arrays must not be modified
+     */
+    static final class Snapshot {
+        //increases with every structural change
+        final long version;
+        //all members sorted by ID, this node included
+        final NodeId[] IDs;
+        //slot of every member, same order as IDs
+        final int[] slots;
+        //members this node sends heart beats to and monitors
+        final NodeId[] neighbourIDs;
+        final int[] neighbourSlots;
+
+        private Snapshot(long version, NodeId[] IDs, int[] slots, NodeId[] neighbourIDs, int[] neighbourSlots) {
+            this.version = version;
+            this.IDs = IDs;
+            this.slots = slots;
+            this.neighbourIDs = neighbourIDs;
+            this.neighbourSlots = neighbourSlots;
+        }
+
+        /**
+         * @param ID node ID
+         * @return whether the node is a neighbour
+         */
+        boolean isNeighbour(NodeId ID) {
+            for (NodeId neighbourID : neighbourIDs) {
+                if (neighbourID.equals(ID)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**outcome of a heartbeat*/
+    enum HeartbeatResult {
+        //the node is not a member
+        UNKNOWN,
+        //the counter is higher than the known one, the member is updated
+        UPDATED,
+        //the counter is not higher than the known one, nothing changed
+        STALE
+    }
+
+    //status of a slot
+    static final int FREE = 0;
+    static final int ALIVE = 1;
+    static final int SUSPECT = 2;
+
+    //slots are allocated in segments that never move, so growing never loses a concurrent update
+    private static final int SEGMENT_BITS = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    //how long and how many removed members are remembered
+    static final long TOMBSTONE_TIMEOUT = 60000;
+    private static final int MAX_TOMBSTONES = 4096;
+
+    private static final NodeId[] NO_IDS = new NodeId[0];
+    private static final int[] NO_SLOTS = new int[0];
+
+    //ID of this node
+    private final NodeId selfID;
+    //number of predecessors and of successors this node monitors
+    private final int neighboursPerSide;
+    //lock-free lookup of slots by ID
+    private final Map<NodeId, Integer> slotsByID = new ConcurrentHashMap<>();
+    //{counter, last seen} of every slot, interleaved so both are on the same cache line
+    private volatile AtomicLongArray[] values = new AtomicLongArray[0];
+    //status of every slot, FREE, ALIVE or SUSPECT
+    private volatile AtomicIntegerArray[] statuses = new AtomicIntegerArray[0];
+    //incarnation of every slot
+    private volatile AtomicLongArray[] incarnations = new AtomicLongArray[0];
+    //num of incarnation and status changes, written under the writer lock
+    private volatile long stateChanges;
+
+    //the fields below are guarded by ring, the writer lock
+    //members sorted by ID, the ring neighbours are taken from
+    private final TreeMap<NodeId, Integer> ring = new TreeMap<>();
+    //freed slots, reused oldest first so snapshot readers rarely see a slot change owner
+    private int[] freeSlots = new int[SEGMENT_SIZE];
+    private int freeHead;
+    private int freeCount;
+    private int slotCount;
+    //removed member -> {counter, local time of the removal, incarnation}, oldest first
+    private final LinkedHashMap<NodeId, long[]> tombstones = new LinkedHashMap<>();
+
+    private volatile Snapshot snapshot = new Snapshot(0, NO_IDS, NO_SLOTS, NO_IDS, NO_SLOTS);
+
+    /**
+     * constructor
+     * @param selfID ID of this node
+     * @param neighboursPerSide number of predecessors and of successors this node monitors
+     */
+    MembershipStore(NodeId selfID, int neighboursPerSide) {
+        this.selfID = selfID;
+        this.neighboursPerSide = Math.max(neighboursPerSide, 1);
+    }
+
+    /**
+     * @return the current snapshot, never locks
+     */
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @param ID node ID
+     * @return slot of the member, or -1 if the node is not a member
+     */
+    int slotOf(NodeId ID) {
+        Integer slot = slotsByID.get(ID);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * find a member by the fields of its ID, never locks and never allocates
+     * @return the member's NodeId instance, null if the node is not a member
+     */
+    NodeId find(long second, int nano, int address, int port) {
+        NodeId[] IDs = snapshot.IDs;
+        int low = 0;
+        int high = IDs.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = IDs[middle].compareTo(second, nano, address, port);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return IDs[middle];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param slot slot of a member
+     * @return heart beat counter
+     */
+    long counter(int slot) {
+        return values[slot >>> SEGMENT_BITS].get((slot & SEGMENT_MASK) << 1);
+    }
+
+    /**
+     * @param slot slot of a member
+     * @return local time millis of the last heartbeat
+     */
+    long lastSeen(int slot) {
+        return values[slot >>> SEGMENT_BITS].get(((slot & SEGMENT_MASK) << 1) + 1);
+    }
+
+    /**
+     * @param slot slot of a member
+     * @return FREE, ALIVE or SUSPECT
+     */
+    int status(int slot) {
+        return statuses[slot >>> SEGMENT_BITS].get(slot & SEGMENT_MASK);
+    }
+
+    /**
+     * @param slot slot of a member
+     * @return incarnation
+     */
+    long incarnation(int slot) {
+        return incarnations[slot >>> SEGMENT_BITS].get(slot & SEGMENT_MASK);
+    }
+
+    /**
+     * @return num of incarnation and status changes so far, a snapshot version does not count them
+     */
+    long stateChanges() {
+        return stateChanges;
+    }
+
+    /**
+     * @return number of members
+     */
+    int size() {
+        return snapshot.IDs.length;
+    }
+
+    /**
+     * record a heartbeat of a member, never locks and never allocates
+     * @param ID node ID
+     * @param counter heart beat counter
+     * @param now local time millis
+     * @return UPDATED if the counter is higher than the known one
+     */
+    HeartbeatResult heartbeat(NodeId ID, long counter, long now) {
+        Integer slot = slotsByID.get(ID);
+        if (slot == null) {
+            return HeartbeatResult.UNKNOWN;
+        }
+        return raiseCounter(ID, slot, counter, now) ? HeartbeatResult.UPDATED : HeartbeatResult.STALE;
+    }
+
+    /**
+     * add a member, if the node is already a member its counter is raised like a heartbeat.
+     * a node removed within TOMBSTONE_TIMEOUT is only added with a higher incarnation than it was removed with
+     * @param ID node ID
+     * @param counter heart beat counter
+     * @param incarnation incarnation
+     * @param now local time millis
+     * @return whether the node was added
+     */
+    boolean add(NodeId ID, long counter, long incarnation, long now) {
+        long requested = System.nanoTime();
+        synchronized (ring) {
+            long acquired = System.nanoTime();
+            try {
+                if (!insert(ID, counter, incarnation, now)) {
+                    return false;
+                }
+                publish(now, true);
+                return true;
+            } finally {
+                recordLock(requested, acquired);
+            }
+        }
+    }
+
+    /**
+     * add many members with one snapshot rebuild, used with the membership list from the introducer.
+     * like add, a node removed within TOMBSTONE_TIMEOUT is only added with a higher incarnation
+     * @param IDs node IDs
+     * @param counters heart beat counters
+     * @param incarnations incarnations
+     * @param now local time millis
+     */
+    void addAll(NodeId[] IDs, long[] counters, long[] incarnations, long now) {
+        long requested = System.nanoTime();
+        synchronized (ring) {
+            long acquired = System.nanoTime();
+            for (int i = 0; i < IDs.length; i++) {
+                insert(IDs[i], counters[i], incarnations[i], now);
+            }
+            publish(now, true);
+            recordLock(requested, acquired);
+        }
+    }
+
+    /**
+     * remove a member, unless the removal is stale or the member is this node
+     * @param ID node ID
+     * @param counter counter the member was removed with, kept in its tombstone if higher than the known one
+     * @param incarnation incarnation the member was removed with, stale if lower than the known one
+     * @return whether the node was removed
+     */
+    boolean remove(NodeId ID, long counter, long incarnation) {
+        long requested = System.nanoTime();
+        synchronized (ring) {
+            long acquired = System.nanoTime();
+            try {
+                Integer slot = ring.get(ID);
+                if (slot == null || ID.equals(selfID) || incarnation < incarnation(slot)) {
+                    return false;
+                }
+                ring.remove(ID);
+                slotsByID.remove(ID);
+                long now = Daemon.clock.getAsLong();
+                tombstones.put(ID, new long[]{Math.max(counter(slot), counter), now,
+                        Math.max(incarnation(slot), incarnation)});
+                pruneTombstones(now);
+                statuses[slot >>> SEGMENT_BITS].set(slot & SEGMENT_MASK, FREE);
+                if (freeCount == freeSlots.length) {
+                    int[] grown = new int[freeSlots.length * 2];
+                    for (int i = 0; i < freeCount; i++) {
+                        grown[i] = freeSlots[(freeHead + i) % freeSlots.length];
+                    }
+                    freeSlots = grown;
+                    freeHead = 0;
+                }
+                freeSlots[(freeHead + freeCount) % freeSlots.length] = slot;
+                freeCount++;
+                //a member outside a full neighbour window leaves the neighbours as they are
+                Snapshot previous = snapshot;
+                boolean neighboursChanged = previous.neighbourIDs.length < 2 * neighboursPerSide
+                        || contains(previous.neighbourIDs, ID);
+                publish(now, neighboursChanged);
+                return true;
+            } finally {
+                recordLock(requested, acquired);
+            }
+        }
+    }
+
+    /**
+     * @param ID node ID
+     * @return incarnation the node was removed with, -1 if it wasn't removed within TOMBSTONE_TIMEOUT
+     */
+    long tombstone(NodeId ID) {
+        synchronized (ring) {
+            pruneTombstones(Daemon.clock.getAsLong());
+            long[] tombstone = tombstones.get(ID);
+            return tombstone == null ? -1 : tombstone[2];
+        }
+    }
+
+    /**
+     * @return members removed within TOMBSTONE_TIMEOUT and the {counter, incarnation} they were removed with, a copy
+     */
+    Map<NodeId, long[]> tombstones() {
+        synchronized (ring) {
+            pruneTombstones(Daemon.clock.getAsLong());
+            Map<NodeId, long[]> copy = new HashMap<>();
+            for (Map.Entry<NodeId, long[]> entry : tombstones.entrySet()) {
+                copy.put(entry.getKey(), new long[]{entry.getValue()[0], entry.getValue()[2]});
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * mark a member suspect, unless the suspicion is stale
+     * @param ID node ID
+     * @param incarnation incarnation the member is suspected with
+     * @return whether the member became suspect, false if it is not a member, already suspect with this
+     * incarnation or known with a higher one
+     */
+    boolean suspect(NodeId ID, long incarnation) {
+        synchronized (ring) {
+            Integer slot = ring.get(ID);
+            if (slot == null || ID.equals(selfID)) {
+                return false;
+            }
+            long known = incarnation(slot);
+            if (incarnation < known || (incarnation == known && status(slot) == SUSPECT)) {
+                return false;
+            }
+            setIncarnation(slot, incarnation, SUSPECT);
+            return true;
+        }
+    }
+
+    /**
+     * raise the incarnation of a member, a suspect member becomes alive again. the member was alive when
+     * it raised it, so its last seen time is now, the failure detector doesn't suspect it again at once
+     * @param ID node ID
+     * @param incarnation incarnation the member announced
+     * @return whether the incarnation was raised
+     */
+    boolean raiseIncarnation(NodeId ID, long incarnation) {
+        synchronized (ring) {
+            Integer slot = ring.get(ID);
+            if (slot == null || incarnation <= incarnation(slot)) {
+                return false;
+            }
+            setIncarnation(slot, incarnation, ALIVE);
+            values[slot >>> SEGMENT_BITS].set(((slot & SEGMENT_MASK) << 1) + 1, Daemon.clock.getAsLong());
+            return true;
+        }
+    }
+
+    /**
+     * mark a suspect member alive without raising its incarnation, when this node heard from it directly
+     * @param ID node ID
+     * @return whether the member was suspect
+     */
+    boolean clearSuspect(NodeId ID) {
+        synchronized (ring) {
+            Integer slot = ring.get(ID);
+            if (slot == null || status(slot) != SUSPECT) {
+                return false;
+            }
+            statuses[slot >>> SEGMENT_BITS].set(slot & SEGMENT_MASK, ALIVE);
+            stateChanges++;
+            return true;
+        }
+    }
+
+    private void setIncarnation(int slot, long incarnation, int status) {
+        incarnations[slot >>> SEGMENT_BITS].set(slot & SEGMENT_MASK, incarnation);
+        statuses[slot >>> SEGMENT_BITS].set(slot & SEGMENT_MASK, status);
+        stateChanges++;
+    }
+
+    /**
+     * forget the oldest removals, the caller holds the writer lock
+     */
+    private void pruneTombstones(long now) {
+        Iterator<long[]> iterator = tombstones.values().iterator();
+        while (iterator.hasNext()) {
+            long[] tombstone = iterator.next();
+            if (tombstones.size() <= MAX_TOMBSTONES && now - tombstone[1] < TOMBSTONE_TIMEOUT) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * record in Metrics how long a writer waited for the lock and held it, the caller holds the lock
+     * @param requested System.nanoTime before the lock was requested
+     * @param acquired System.nanoTime once the lock was acquired
+     */
+    private static void recordLock(long requested, long acquired) {
+        Metrics.membershipLockWait.record(acquired - requested);
+        Metrics.membershipLockHold.record(System.nanoTime() - acquired);
+    }
+
+    /**
+     * put a member into the ring, the caller holds the writer lock
+     * @return whether the node was added, false if it was a member already or removed with at least the
+     * incarnation within TOMBSTONE_TIMEOUT
+     */
+    private boolean insert(NodeId ID, long counter, long incarnation, long now) {
+        Integer existing = slotsByID.get(ID);
+        if (existing != null) {
+            raiseCounter(ID, existing, counter, now);
+            if (incarnation > incarnation(existing)) {
+                setIncarnation(existing, incarnation, ALIVE);
+            }
+            return false;
+        }
+        long[] tombstone = tombstones.get(ID);
+        if (tombstone != null) {
+            if (tombstone[2] >= incarnation && now - tombstone[1] < TOMBSTONE_TIMEOUT) {
+                return false;
+            }
+            tombstones.remove(ID);
+        }
+        int slot = allocateSlot();
+        AtomicLongArray segment = values[slot >>> SEGMENT_BITS];
+        int index = (slot & SEGMENT_MASK) << 1;
+        segment.set(index, counter);
+        segment.set(index + 1, now);
+        setIncarnation(slot, incarnation, ALIVE);
+        ring.put(ID, slot);
+        slotsByID.put(ID, slot);
+        return true;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            int slot = freeSlots[freeHead];
+            freeHead = (freeHead + 1) % freeSlots.length;
+            freeCount--;
+            return slot;
+        }
+        int slot = slotCount++;
+        if ((slot >>> SEGMENT_BITS) == values.length) {
+            AtomicLongArray[] grownValues = new AtomicLongArray[values.length + 1];
+            System.arraycopy(values, 0, grownValues, 0, values.length);
+            grownValues[values.length] = new AtomicLongArray(SEGMENT_SIZE << 1);
+            AtomicIntegerArray[] grownStatuses = new AtomicIntegerArray[statuses.length + 1];
+            System.arraycopy(statuses, 0, grownStatuses, 0, statuses.length);
+            grownStatuses[statuses.length] = new AtomicIntegerArray(SEGMENT_SIZE);
+            AtomicLongArray[] grownIncarnations = new AtomicLongArray[incarnations.length + 1];
+            System.arraycopy(incarnations, 0, grownIncarnations, 0, incarnations.length);
+            grownIncarnations[incarnations.length] = new AtomicLongArray(SEGMENT_SIZE);
+            values = grownValues;
+            statuses = grownStatuses;
+            incarnations = grownIncarnations;
+        }
+        return slot;
+    }
+
+    /**
+     * raise the counter of a slot with a CAS, the local time is set if the counter was raised.
+     * the slot was looked up without the lock, the member can be removed and its slot reused by another
+     * member before the CAS. the owner is checked again after the CAS and a raise that went to the new
+     * owner is undone, unless the new owner raised the counter further meanwhile
+     * @param ID node ID the slot was looked up with
+     * @return false if the counter is not higher than the known one or the slot no longer belongs to the member
+     */
+    private boolean raiseCounter(NodeId ID, int slot, long counter, long now) {
+        AtomicLongArray segment = values[slot >>> SEGMENT_BITS];
+        int index = (slot & SEGMENT_MASK) << 1;
+        long current;
+        do {
+            current = segment.get(index);
+            if (counter <= current) {
+                return false;
+            }
+        } while (!segment.compareAndSet(index, current, counter));
+        Integer owner = slotsByID.get(ID);
+        if (owner == null || owner != slot) {
+            segment.compareAndSet(index, counter, current);
+            return false;
+        }
+        segment.set(index + 1, now);
+        return true;
+    }
+
+    /**
+     * rebuild the snapshot, the caller holds the writer lock.
+     * new neighbours get their local time reset so the monitor gives them a full timeout
+     * @param now local time millis
+     * @param neighboursChanged false if the change can't have touched the neighbours
+     */
+    private void publish(long now, boolean neighboursChanged) {
+        NodeId[] IDs = new NodeId[ring.size()];
+        int[] slots = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<NodeId, Integer> entry : ring.entrySet()) {
+            IDs[i] = entry.getKey();
+            slots[i] = entry.getValue();
+            i++;
+        }
+
+        Snapshot previous = snapshot;
+        NodeId[] neighbourIDs = previous.neighbourIDs;
+        int[] neighbourSlots = previous.neighbourSlots;
+        if (neighboursChanged) {
+            NodeId[] candidateIDs = new NodeId[2 * neighboursPerSide];
+            int[] candidateSlots = new int[2 * neighboursPerSide];
+            int count = 0;
+            //get predecessors, walking down the ring and wrapping around
+            NodeId key = selfID;
+            for (int j = 0; j < neighboursPerSide; j++) {
+                Map.Entry<NodeId, Integer> predecessor = ring.lowerEntry(key);
+                if (predecessor == null) {
+                    predecessor = ring.lastEntry();
+                }
+                if (predecessor == null || predecessor.getKey().equals(selfID)
+                        || containsID(candidateIDs, count, predecessor.getKey())) {
+                    break;
+                }
+                candidateIDs[count] = predecessor.getKey();
+                candidateSlots[count++] = predecessor.getValue();
+                key = predecessor.getKey();
+            }
+            //get successors, walking up the ring, small rings stop at the predecessors
+            key = selfID;
+            for (int j = 0; j < neighboursPerSide; j++) {
+                Map.Entry<NodeId, Integer> successor = ring.higherEntry(key);
+                if (successor == null) {
+                    successor = ring.firstEntry();
+                }
+                if (successor == null || successor.getKey().equals(selfID)
+                        || containsID(candidateIDs, count, successor.getKey())) {
+                    break;
+                }
+                candidateIDs[count] = successor.getKey();
+                candidateSlots[count++] = successor.getValue();
+                key = successor.getKey();
+            }
+
+            if (!sameIDs(previous.neighbourIDs, candidateIDs, count)) {
+                neighbourIDs = new NodeId[count];
+                neighbourSlots = new int[count];
+                System.arraycopy(candidateIDs, 0, neighbourIDs, 0, count);
+                System.arraycopy(candidateSlots, 0, neighbourSlots, 0, count);
+
+                //log the change of neighbours only
+                for (NodeId neighbourID : previous.neighbourIDs) {
+                    if (!contains(neighbourIDs, neighbourID)) {
+                        Daemon.writeLog("NEIGHBOUR REMOVE", neighbourID);
+                    }
+                }
+                for (int j = 0; j < neighbourIDs.length; j++) {
+                    if (!contains(previous.neighbourIDs, neighbourIDs[j])) {
+                        Daemon.writeLog("NEIGHBOUR ADD", neighbourIDs[j]);
+                        int slot = neighbourSlots[j];
+                        values[slot >>> SEGMENT_BITS].set(((slot & SEGMENT_MASK) << 1) + 1, now);
+                    }
+                }
+            }
+        }
+
+        snapshot = new Snapshot(previous.version + 1, IDs, slots, neighbourIDs, neighbourSlots);
+    }
+
+    private static boolean containsID(NodeId[] IDs, int count, NodeId ID) {
+        for (int i = 0; i < count; i++) {
+            if (IDs[i].equals(ID)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameIDs(NodeId[] IDs, NodeId[] candidates, int count) {
+        if (IDs.length != count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!IDs[i].equals(candidates[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(NodeId[] IDs, NodeId ID) {
+        for (NodeId candidate : IDs) {
+            if (candidate.equals(ID)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
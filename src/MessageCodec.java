@@ -0,0 +1,483 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**binary wire format of heartbeat, gossip, probe and anti-entropy messages
+ * message layout, version 7:
+ * byte    : version
+ * byte    : message type, 0 heartbeat, 1 gossip, 2 ping, 3 ack, 4 ping-req, 5 sync, 6 delta, 7 join, 8 zones
+ * entry   : the heartbeat or the gossiped update, for probes the sender and the probe sequence number,
+ *           for sync and delta the sender, a sync has counter 1 if the digest of the receiver is wanted back,
+ *           for join the joining node, answered with its membership list like a join request, see JoinClient,
+ *           for zones the sender, counter 1 if the newer summaries of the receiver are wanted back
+ * ID      : probes only, the subject, see SwimDetector
+ * ints    : sync only, AntiEntropy.BUCKETS bucket hashes of the membership list, see AntiEntropy
+ * byte    : number of piggybacked updates, for zones the number of zone summaries
+ * entry   : piggybacked updates, one entry each, for delta the entries of the membership list sent
+ * summary : zones only, one per zone, see Zones
+ * summary layout:
+ * byte    : length of the zone label, then the UTF-8 label
+ * varint  : version
+ * varint  : number of members
+ * byte    : number of delegates, then the encoded ID of each
+ * entry layout:
+ * byte    : action, ordinal of Action, plus TRACED if the entry carries a trace
+ * byte    : TTL, 0 for heartbeats
+ * varint  : counter
+ * varint  : incarnation, raised only by the node itself to refute a suspicion, see Suspicion
+ * varint  : node ID time stamp, epoch second
+ * varint  : node ID time stamp, nano of second
+ * 4 bytes : node ID IPv4 address
+ * 2 bytes : node ID packet port
+ * trace   : gossiped updates only, if TRACED, see Tracing
+ * trace layout:
+ * varint  : origin time, epoch ms
+ * byte    : hops, transmissions from the origin up to the receiver
+ * ID      : origin node
+ * one codec is used by one thread only, the send buffer and the decoded fields are reused
+ */
+public class MessageCodec {
+    static final byte VERSION = 7;
+    static final byte TYPE_HEARTBEAT = 0;
+    static final byte TYPE_GOSSIP = 1;
+    static final byte TYPE_PING = 2;
+    static final byte TYPE_ACK = 3;
+    static final byte TYPE_PING_REQ = 4;
+    static final byte TYPE_SYNC = 5;
+    static final byte TYPE_DELTA = 6;
+    static final byte TYPE_JOIN = 7;
+    static final byte TYPE_ZONES = 8;
+    //same as the receive buffers of the sockets
+    static final int MAX_MESSAGE_SIZE = 1024;
+    //longest encoded node ID
+    static final int MAX_ID_SIZE = 21;
+    //largest nano of second of a node ID time stamp
+    private static final long MAX_NANO = 999_999_999;
+    //action, TTL, the longest counter and incarnation varints and the longest ID
+    private static final int MAX_ENTRY_SIZE = 22 + MAX_ID_SIZE;
+    //flag of the action byte of an entry followed by a trace
+    private static final int TRACED = 0x80;
+    //longest origin time varint, hops and the longest ID
+    private static final int MAX_TRACE_SIZE = 11 + MAX_ID_SIZE;
+    private static final int MAX_PIGGYBACKED_UPDATES = 255;
+    //longest zone label, in UTF-8 bytes
+    static final int MAX_ZONE_SIZE = 32;
+    //most delegates a zone summary names
+    static final int MAX_DELEGATES = 8;
+
+    //decoded ID cache, ID_CACHE_SETS sets of ID_CACHE_WAYS IDs, most recently used first, powers of two
+    private static final int ID_CACHE_SETS = 1024;
+    private static final int ID_CACHE_WAYS = 4;
+
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(MAX_MESSAGE_SIZE);
+    //position of the piggybacked update count in the send buffer
+    private int countPosition;
+    private int sendUpdateCount;
+
+    //decoded identity -> node ID, set associative by hash, a miss evicts the least recently used ID of the set.
+    //the same NodeId instance, and its resolved address, is handed out for every packet of a node
+    private final NodeId[] cachedIDs = new NodeId[ID_CACHE_SETS * ID_CACHE_WAYS];
+
+    //fields of the last decoded message
+    byte type;
+    Action action;
+    int TTL;
+    long counter;
+    long incarnation;
+    NodeId ID;
+    //trace of the last decoded entry, origin is null if it has none
+    NodeId origin;
+    long originTime;
+    int hops;
+    //subject of the last decoded probe, null for other messages
+    NodeId subject;
+    //bucket hashes of the last decoded sync, reused
+    final int[] digest = new int[AntiEntropy.BUCKETS];
+    //fields of the last decoded zone summary, the version is in counter. the delegates are a new array per summary
+    String zone;
+    int zoneMembers;
+    NodeId[] zoneDelegates;
+    //piggybacked updates of the last decoded message not read yet
+    private int receiveUpdateCount;
+
+    /**
+     * encode a heartbeat message without piggybacked updates
+     * @param ID node ID
+     * @param counter heartbeat counter
+     * @param incarnation incarnation of the node
+     * @return the reused send buffer, ready to be read
+     */
+    ByteBuffer encodeHeartBeat(NodeId ID, long counter, long incarnation) {
+        begin(TYPE_HEARTBEAT, ID, Action.HEARTBEAT, counter, incarnation, 0);
+        return finish();
+    }
+
+    /**
+     * encode a gossip message without piggybacked updates
+     * @param ID node ID
+     * @param action action
+     * @param counter heartbeat counter
+     * @param incarnation incarnation of the node
+     * @param TTL relay number
+     * @return the reused send buffer, ready to be read
+     */
+    ByteBuffer encodeGossip(NodeId ID, Action action, long counter, long incarnation, int TTL) {
+        begin(TYPE_GOSSIP, ID, action, counter, incarnation, TTL);
+        return finish();
+    }
+
+    /**
+     * encode a traced gossip message without piggybacked updates
+     * @param ID node ID
+     * @param action action
+     * @param counter heartbeat counter
+     * @param incarnation incarnation of the node
+     * @param TTL relay number
+     * @param origin node that started the update
+     * @param originTime time the update started, epoch ms
+     * @param hops transmissions from the origin up to the receiver
+     * @return the reused send buffer, ready to be read
+     */
+    ByteBuffer encodeGossip(NodeId ID, Action action, long counter, long incarnation, int TTL, NodeId origin,
+                            long originTime, int hops) {
+        sendBuffer.clear();
+        sendBuffer.put(VERSION);
+        sendBuffer.put(TYPE_GOSSIP);
+        putEntry(ID, action, counter, incarnation, TTL, origin, originTime, hops);
+        beginUpdates();
+        return finish();
+    }
+
+    /**
+     * start a new message in the send buffer, updates can then be added with putUpdate
+     * @param type message type
+     * @param ID node ID
+     * @param action action
+     * @param counter heartbeat counter
+     * @param incarnation incarnation of the node
+     * @param TTL relay number
+     */
+    void begin(byte type, NodeId ID, Action action, long counter, long incarnation, int TTL) {
+        sendBuffer.clear();
+        sendBuffer.put(VERSION);
+        sendBuffer.put(type);
+        putEntry(ID, action, counter, incarnation, TTL);
+        beginUpdates();
+    }
+
+    /**
+     * start a new probe message in the send buffer, updates can then be added with putUpdate
+     * @param type TYPE_PING, TYPE_ACK or TYPE_PING_REQ
+     * @param ID node ID of the sender
+     * @param sequence probe sequence number
+     * @param subject subject of the probe
+     */
+    void beginProbe(byte type, NodeId ID, long sequence, NodeId subject) {
+        sendBuffer.clear();
+        sendBuffer.put(VERSION);
+        sendBuffer.put(type);
+        putEntry(ID, Action.HEARTBEAT, sequence, 0, 0);
+        putID(sendBuffer, subject);
+        beginUpdates();
+    }
+
+    /**
+     * encode a sync message of the anti-entropy
+     * @param ID node ID of the sender
+     * @param reply whether the receiver should send its digest back
+     * @param digest AntiEntropy.BUCKETS bucket hashes
+     * @return the reused send buffer, ready to be read
+     */
+    ByteBuffer encodeSync(NodeId ID, boolean reply, int[] digest) {
+        sendBuffer.clear();
+        sendBuffer.put(VERSION);
+        sendBuffer.put(TYPE_SYNC);
+        putEntry(ID, Action.HEARTBEAT, reply ? 1 : 0, 0, 0);
+        for (int hash : digest) {
+            sendBuffer.putInt(hash);
+        }
+        beginUpdates();
+        return finish();
+    }
+
+    /**
+     * start a new zones message in the send buffer, summaries can then be added with putZone
+     * @param ID node ID of the sender
+     * @param reply whether the receiver should send its newer summaries back
+     */
+    void beginZones(NodeId ID, boolean reply) {
+        begin(TYPE_ZONES, ID, Action.HEARTBEAT, reply ? 1 : 0, 0, 0);
+    }
+
+    /**
+     * add a zone summary to the message started by beginZones
+     * @param label UTF-8 zone label, at most MAX_ZONE_SIZE bytes
+     * @param version version of the summary
+     * @param members num of members of the zone
+     * @param delegates delegates of the zone, at most MAX_DELEGATES
+     * @return false if the message is full, the summary is not added then
+     */
+    boolean putZone(byte[] label, long version, int members, NodeId[] delegates) {
+        if (sendUpdateCount == MAX_PIGGYBACKED_UPDATES
+                || sendBuffer.remaining() < 17 + label.length + delegates.length * MAX_ID_SIZE) {
+            return false;
+        }
+        sendBuffer.put((byte) label.length);
+        sendBuffer.put(label);
+        putVarLong(sendBuffer, version);
+        putVarLong(sendBuffer, members);
+        sendBuffer.put((byte) delegates.length);
+        for (NodeId delegate : delegates) {
+            putID(sendBuffer, delegate);
+        }
+        sendUpdateCount++;
+        return true;
+    }
+
+    private void beginUpdates() {
+        countPosition = sendBuffer.position();
+        sendBuffer.put((byte) 0);
+        sendUpdateCount = 0;
+    }
+
+    /**
+     * piggyback an update on the message started by begin
+     * @return false if the message is full, the update is not added then
+     */
+    boolean putUpdate(NodeId ID, Action action, long counter, long incarnation, int TTL) {
+        return putUpdate(ID, action, counter, incarnation, TTL, null, 0, 0);
+    }
+
+    /**
+     * piggyback an update with its trace on the message started by begin
+     * @param origin node that started the update, null for an update without trace
+     * @param originTime time the update started, epoch ms
+     * @param hops transmissions from the origin up to the receiver
+     * @return false if the message is full, the update is not added then
+     */
+    boolean putUpdate(NodeId ID, Action action, long counter, long incarnation, int TTL, NodeId origin,
+                      long originTime, int hops) {
+        if (sendUpdateCount == MAX_PIGGYBACKED_UPDATES
+                || sendBuffer.remaining() < MAX_ENTRY_SIZE + (origin == null ? 0 : MAX_TRACE_SIZE)) {
+            return false;
+        }
+        putEntry(ID, action, counter, incarnation, TTL, origin, originTime, hops);
+        sendUpdateCount++;
+        return true;
+    }
+
+    /**
+     * finish the message started by begin
+     * @return the reused send buffer, ready to be read
+     */
+    ByteBuffer finish() {
+        sendBuffer.put(countPosition, (byte) sendUpdateCount);
+        sendBuffer.flip();
+        return sendBuffer;
+    }
+
+    private void putEntry(NodeId ID, Action action, long counter, long incarnation, int TTL) {
+        putEntry(ID, action, counter, incarnation, TTL, null, 0, 0);
+    }
+
+    private void putEntry(NodeId ID, Action action, long counter, long incarnation, int TTL, NodeId origin,
+                          long originTime, int hops) {
+        sendBuffer.put((byte) (action.ordinal() | (origin == null ? 0 : TRACED)));
+        sendBuffer.put((byte) Math.min(Math.max(TTL, 0), 255));
+        putVarLong(sendBuffer, counter);
+        putVarLong(sendBuffer, incarnation);
+        putID(sendBuffer, ID);
+        if (origin != null) {
+            putVarLong(sendBuffer, originTime);
+            sendBuffer.put((byte) Math.min(Math.max(hops, 0), 255));
+            putID(sendBuffer, origin);
+        }
+    }
+
+    /**
+     * decode the header of a message, the fields of this codec are set to the heartbeat or gossiped update
+     * @param buffer buffer holding the message between position and limit
+     * @return false if the message is malformed or of an unknown version
+     */
+    boolean decode(ByteBuffer buffer) {
+        receiveUpdateCount = 0;
+        try {
+            if (buffer.get() != VERSION) {
+                return false;
+            }
+            type = buffer.get();
+            if (!getEntry(buffer) || type < TYPE_HEARTBEAT || type > TYPE_ZONES) {
+                return false;
+            }
+            subject = isProbe(type) ? getID(buffer) : null;
+            if (type == TYPE_SYNC) {
+                for (int i = 0; i < digest.length; i++) {
+                    digest[i] = buffer.getInt();
+                }
+            }
+            receiveUpdateCount = buffer.get() & 0xff;
+            return true;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean isProbe(byte type) {
+        return type == TYPE_PING || type == TYPE_ACK || type == TYPE_PING_REQ;
+    }
+
+    /**
+     * @return whether the last decoded message has piggybacked updates not read yet
+     */
+    boolean hasNextUpdate() {
+        return receiveUpdateCount > 0;
+    }
+
+    /**
+     * decode the next piggybacked update, the fields of this codec are set to the update
+     * @param buffer buffer passed to decode
+     * @return false if the update is malformed, the rest of the message is skipped then
+     */
+    boolean nextUpdate(ByteBuffer buffer) {
+        receiveUpdateCount--;
+        try {
+            if (getEntry(buffer)) {
+                return true;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            //fall through
+        }
+        receiveUpdateCount = 0;
+        return false;
+    }
+
+    /**
+     * decode the next zone summary of a zones message, zone, counter, zoneMembers and zoneDelegates are set
+     * @param buffer buffer passed to decode
+     * @return false if the summary is malformed, the rest of the message is skipped then
+     */
+    boolean nextZone(ByteBuffer buffer) {
+        receiveUpdateCount--;
+        try {
+            int length = buffer.get() & 0xff;
+            if (length <= MAX_ZONE_SIZE) {
+                byte[] label = new byte[length];
+                buffer.get(label);
+                zone = new String(label, StandardCharsets.UTF_8);
+                counter = getVarLong(buffer);
+                zoneMembers = (int) getVarLong(buffer);
+                int delegateCount = buffer.get() & 0xff;
+                if (delegateCount <= MAX_DELEGATES) {
+                    zoneDelegates = new NodeId[delegateCount];
+                    for (int i = 0; i < delegateCount; i++) {
+                        zoneDelegates[i] = getID(buffer);
+                    }
+                    return true;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            //fall through
+        }
+        receiveUpdateCount = 0;
+        return false;
+    }
+
+    private boolean getEntry(ByteBuffer buffer) {
+        int code = buffer.get() & 0xff;
+        action = Action.fromCode(code & ~TRACED);
+        TTL = buffer.get() & 0xff;
+        counter = getVarLong(buffer);
+        incarnation = getVarLong(buffer);
+        ID = getID(buffer);
+        if ((code & TRACED) != 0) {
+            originTime = getVarLong(buffer);
+            hops = buffer.get() & 0xff;
+            origin = getID(buffer);
+        } else {
+            origin = null;
+        }
+        return action != null;
+    }
+
+    /**
+     * read an encoded node ID. a cache miss takes the instance of the membership list if the node is a
+     * member, only IDs of unknown nodes are allocated
+     * @param buffer buffer positioned at the ID
+     * @return the ID, the cached or member instance if this node is known
+     * @throws IllegalArgumentException if the nano of second is out of range
+     */
+    NodeId getID(ByteBuffer buffer) {
+        long second = getVarLong(buffer);
+        long nanoOfSecond = getVarLong(buffer);
+        if (nanoOfSecond < 0 || nanoOfSecond > MAX_NANO) {
+            throw new IllegalArgumentException("nano of second out of range : " + nanoOfSecond);
+        }
+        int nano = (int) nanoOfSecond;
+        int address = buffer.getInt();
+        int port = buffer.getShort() & 0xffff;
+
+        int hash = (int) (second ^ (second >>> 32)) * 31 + nano;
+        hash = ((hash * 31 + address) * 31 + port) * 0x9E3779B9;
+        int set = ((hash ^ (hash >>> 16)) & (ID_CACHE_SETS - 1)) * ID_CACHE_WAYS;
+        int way = 0;
+        NodeId ID = null;
+        for (; way < ID_CACHE_WAYS; way++) {
+            NodeId cached = cachedIDs[set + way];
+            if (cached == null || (cached.second == second && cached.nano == nano && cached.address == address
+                    && cached.port == port)) {
+                ID = cached;
+                break;
+            }
+        }
+        if (ID == null) {
+            MembershipStore membership = Daemon.membership;
+            ID = membership == null ? null : membership.find(second, nano, address, port);
+            if (ID == null) {
+                ID = NodeId.of(second, nano, address, port);
+            }
+            way = Math.min(way, ID_CACHE_WAYS - 1);
+        }
+        //move to the front of the set, the last way is the one evicted
+        System.arraycopy(cachedIDs, set, cachedIDs, set + 1, way);
+        cachedIDs[set] = ID;
+        return ID;
+    }
+
+    /**
+     * write an encoded node ID, at most MAX_ID_SIZE bytes
+     * @param buffer buffer the ID is written to
+     * @param ID node ID
+     */
+    static void putID(ByteBuffer buffer, NodeId ID) {
+        putVarLong(buffer, ID.second);
+        putVarLong(buffer, ID.nano);
+        buffer.putInt(ID.address);
+        buffer.putShort((short) ID.port);
+    }
+
+    /**
+     * write an unsigned LEB128 varint
+     */
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * read an unsigned LEB128 varint
+     */
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+}
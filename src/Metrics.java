@@ -0,0 +1,310 @@
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**runtime metrics of the protocol
+ * counters are LongAdders, striped so the protocol threads never contend on them.
+ * latencies go into log-linear histograms, HDR style: 16 linear sub-buckets per power of two,
+ * so any percentile is within about 6% of the true value and recording is one array increment.
+ * shown by the STATS command and exposed over JMX as membership:type=Metrics, one attribute per
+ * counter and count, mean, p50, p99 and max attributes per histogram
+ */
+public class Metrics implements DynamicMBean {
+    /**log-linear histogram of non-negative values
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        //values below 2 * SUB_COUNT get a bucket each, then SUB_COUNT buckets per power of two
+        private static final int BUCKETS = 2 * SUB_COUNT + (63 - SUB_BITS) * SUB_COUNT;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * @param value value to record, negative values count as 0
+         */
+        void record(long value) {
+            value = Math.max(value, 0);
+            buckets.incrementAndGet(bucketOf(value));
+            count.increment();
+            sum.add(value);
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : sum.sum() / n;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        /**
+         * @param fraction 0.5 for the median, 0.99 for the 99th percentile
+         * @return lowest value of the bucket holding the percentile, 0 if nothing was recorded
+         */
+        long percentile(double fraction) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(lowestValueOf(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static int bucketOf(long value) {
+            if (value < 2 * SUB_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return 2 * SUB_COUNT + (exponent - SUB_BITS - 1) * SUB_COUNT + sub;
+        }
+
+        private static long lowestValueOf(int bucket) {
+            if (bucket < 2 * SUB_COUNT) {
+                return bucket;
+            }
+            int exponent = (bucket - 2 * SUB_COUNT) / SUB_COUNT + SUB_BITS + 1;
+            int sub = (bucket - 2 * SUB_COUNT) % SUB_COUNT;
+            return (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+        }
+    }
+
+    //registered metrics by name, in the order they are shown
+    private static final Map<String, LongAdder> counters = new LinkedHashMap<>();
+    private static final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    //packets and bytes by message type, indexed by MessageCodec type, JOIN also counts the join transfer
+    static final int JOIN = MessageCodec.TYPE_JOIN;
+    private static final String[] TYPE_NAMES = {"heartbeat", "gossip", "ping", "ack", "ping_req", "sync", "delta", "join",
+            "zones"};
+    static final LongAdder[] packetsIn = counters("packets_in_");
+    static final LongAdder[] bytesIn = counters("bytes_in_");
+    static final LongAdder[] packetsOut = counters("packets_out_");
+    static final LongAdder[] bytesOut = counters("bytes_out_");
+
+    //gossiped updates queued to be relayed, received updates seen before, and stale updates ignored
+    static final LongAdder gossipRelays = counter("gossip_relays");
+    static final LongAdder gossipDuplicates = counter("gossip_duplicates");
+    static final LongAdder gossipStale = counter("gossip_stale");
+    //members this node's failure detector suspected, and suspicions of this node it refuted
+    static final LongAdder suspicions = counter("suspicions");
+    static final LongAdder refutations = counter("refutations");
+    //members removed by this node's failure detector
+    static final LongAdder failures = counter("failures");
+    //heartbeats from nodes that were removed, mostly false positives somewhere in the group
+    static final LongAdder rejoins = counter("heartbeat_rejoins");
+    //members added or removed by anti-entropy, updates the gossip never delivered
+    static final LongAdder syncRepairs = counter("sync_repairs");
+    //membership events delivered to listeners, merged into a pending one, and dropped with the queue full
+    static final LongAdder eventsDelivered = counter("events_delivered");
+    static final LongAdder eventsCoalesced = counter("events_coalesced");
+    static final LongAdder eventsDropped = counter("events_dropped");
+    //join transfers a joining node asked to resend missing chunks of, see JoinSender
+    static final LongAdder joinResends = counter("join_resends");
+
+    static final Histogram joinLatency = histogram("join_latency_ms");
+    //time from the last heartbeat of a member to its FAILURE
+    static final Histogram failureDetectionTime = histogram("failure_detection_ms");
+    //time from a membership change to the delivery of its event, see MembershipEvents
+    static final Histogram eventDeliveryTime = histogram("event_delivery_ms");
+    //time from the start of a traced update to its first arrival here, and its hops, by Action, see Tracing
+    static final Histogram[] traceLatency = histograms("trace_", "_latency_ms");
+    static final Histogram[] traceHops = histograms("trace_", "_hops");
+    //writer lock of MembershipStore
+    static final Histogram membershipLockWait = histogram("membership_lock_wait_ns");
+    static final Histogram membershipLockHold = histogram("membership_lock_hold_ns");
+
+    private static LongAdder counter(String name) {
+        LongAdder counter = new LongAdder();
+        counters.put(name, counter);
+        return counter;
+    }
+
+    private static LongAdder[] counters(String prefix) {
+        LongAdder[] byType = new LongAdder[TYPE_NAMES.length];
+        for (int i = 0; i < byType.length; i++) {
+            byType[i] = counter(prefix + TYPE_NAMES[i]);
+        }
+        return byType;
+    }
+
+    private static Histogram histogram(String name) {
+        Histogram histogram = new Histogram();
+        histograms.put(name, histogram);
+        return histogram;
+    }
+
+    //one histogram per gossiped action, none for HEARTBEAT
+    private static Histogram[] histograms(String prefix, String suffix) {
+        Action[] actions = Action.values();
+        Histogram[] byAction = new Histogram[actions.length];
+        for (int i = 0; i < actions.length; i++) {
+            if (actions[i] != Action.HEARTBEAT) {
+                byAction[i] = histogram(prefix + actions[i].name().toLowerCase() + suffix);
+            }
+        }
+        return byAction;
+    }
+
+    /**
+     * count a packet sent
+     * @param type MessageCodec type, or JOIN
+     * @param bytes size of the packet
+     */
+    static void sent(int type, int bytes) {
+        if (type >= 0 && type < TYPE_NAMES.length) {
+            packetsOut[type].increment();
+            bytesOut[type].add(bytes);
+        }
+    }
+
+    /**
+     * count a packet received
+     * @param type MessageCodec type, or JOIN
+     * @param bytes size of the packet
+     */
+    static void received(int type, int bytes) {
+        if (type >= 0 && type < TYPE_NAMES.length) {
+            packetsIn[type].increment();
+            bytesIn[type].add(bytes);
+        }
+    }
+
+    /**
+     * @return every metric as plain text, one per line
+     */
+    static String text() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            text.append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            text.append(entry.getKey())
+                    .append(" count=").append(histogram.count())
+                    .append(" mean=").append(histogram.mean())
+                    .append(" p50=").append(histogram.percentile(0.5))
+                    .append(" p99=").append(histogram.percentile(0.99))
+                    .append(" max=").append(histogram.max())
+                    .append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * register the metrics with the platform MBean server
+     */
+    static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(),
+                    new ObjectName("membership:type=Metrics"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        LongAdder counter = counters.get(attribute);
+        if (counter != null) {
+            return counter.sum();
+        }
+        int separator = attribute.lastIndexOf('.');
+        Histogram histogram = separator < 0 ? null : histograms.get(attribute.substring(0, separator));
+        if (histogram != null) {
+            switch (attribute.substring(separator + 1)) {
+                case "count":
+                    return histogram.count();
+                case "mean":
+                    return histogram.mean();
+                case "p50":
+                    return histogram.percentile(0.5);
+                case "p99":
+                    return histogram.percentile(0.99);
+                case "max":
+                    return histogram.max();
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                //left out, as the interface asks
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+            throws MBeanException, ReflectionException {
+        //no operations, only attributes
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : counters.keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+        }
+        for (String name : histograms.keySet()) {
+            for (String statistic : new String[]{"count", "mean", "p50", "p99", "max"}) {
+                attributes.add(new MBeanAttributeInfo(name + "." + statistic, "long",
+                        statistic + " of " + name, true, false, false));
+            }
+        }
+        return new MBeanInfo(Metrics.class.getName(), "membership protocol metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
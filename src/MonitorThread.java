@@ -1,63 +1,60 @@
 import java.net.DatagramSocket;
 import java.net.SocketException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**monitor the node that need to send heartbeat to this node
- * detect possible failure
+ * detect possible failure, a neighbour that timed out becomes suspect
+ * with failureDetector=phi the timeout adapts to each neighbour, see PhiAccrualDetector
+ * with failureDetector=swim the SWIM detector runs instead
+ * checks run at a fixed rate on Daemon.timers
  * Created by haosun on 11/3/17.
  */
 public class MonitorThread extends Thread{
+    //interval between two checks, a check only reads the neighbours so it can run often
+    static final long CHECK_INTERVAL = 100;
+
+    //transport a suspected neighbour is told with
+    private Transport transport;
 
     @Override
     public void run() {
         DatagramSocket sendSocket = null;
-        while (sendSocket == null) {
-            try {
-                sendSocket = new DatagramSocket();
-            } catch (SocketException e) {
-                e.printStackTrace();
-            }
+        try {
+            sendSocket = new DatagramSocket();
+        } catch (SocketException e) {
+            e.printStackTrace();
         }
+        if (Daemon.swim == null) {
+            start(new SocketTransport(sendSocket));
+        } else {
+            Daemon.swim.start(new SocketTransport(sendSocket));
+        }
+    }
 
-        List<String> timeoutNodes = new ArrayList<>();
-
-        while (true) {
-            try {
-                Thread.sleep(500);
-
-                boolean needUpdate = false;
-
-                synchronized (Daemon.membershipList) {
-                    synchronized (Daemon.neighbours) {
-                        for (String neighbour : Daemon.neighbours) {
-                            long lastAliveMoment = Daemon.membershipList.get(neighbour)[1];
-                            if (System.currentTimeMillis() - lastAliveMoment > 2000) {
-                                timeoutNodes.add(neighbour);
-                                needUpdate = true;
-                            } else {
-                                Daemon.writeLog("PASS", neighbour);
-                            }
-                        }
-                        if (needUpdate) {
-                            for (String node : timeoutNodes) {
-                                Daemon.membershipList.remove(node);
-                                Daemon.writeLog("FAILURE", node);
-                            }
-                            Daemon.updateNeighbours();
-                        }
-                    }
-                }
+    /**
+     * start checking, every CHECK_INTERVAL on Daemon.timers
+     * @param transport transport a suspected neighbour is told with
+     */
+    void start(Transport transport) {
+        this.transport = transport;
+        Daemon.timers.scheduleAtFixedRate(this::check, CHECK_INTERVAL, CHECK_INTERVAL);
+    }
 
-                if (needUpdate) {
-                    for (String node : timeoutNodes) {
-                        Protocol.sendGossip(node, "REMOVE", 0, 2, 2, sendSocket);
-                        Daemon.writeLog("REMOVE", node);
-                    }
-                }
-                timeoutNodes.clear();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    /**
+     * check the neighbours once, suspect the ones whose last heartbeat is too old, see Suspicion.
+     * too old is more than 2000 ms, or phi above the threshold with failureDetector=phi
+     */
+    void check() {
+        MembershipStore.Snapshot snapshot = Daemon.membership.snapshot();
+        for (int i = 0; i < snapshot.neighbourSlots.length; i++) {
+            long lastAliveMoment = Daemon.membership.lastSeen(snapshot.neighbourSlots[i]);
+            long now = Daemon.clock.getAsLong();
+            boolean timedOut = Daemon.phi != null
+                    ? Daemon.phi.isFailed(snapshot.neighbourSlots[i], snapshot.neighbourIDs[i], lastAliveMoment, now)
+                    : now - lastAliveMoment > 2000;
+            if (timedOut) {
+                Daemon.suspicion.suspect(snapshot.neighbourIDs[i], transport);
+            } else {
+                Daemon.writeLog("PASS", snapshot.neighbourIDs[i]);
             }
         }
     }
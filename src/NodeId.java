@@ -0,0 +1,156 @@
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**ID of a node, the time stamp the node started at (its incarnation), IPv4 address and packet port
+ * the socket address is resolved once when the ID is created, never per packet.
+ * IDs are ordered by time stamp, then address, then port, which gives the ring order.
+ * text form: LocalDateTime#ip:port
+ */
+public final class NodeId implements Comparable<NodeId> {
+    //time stamp, epoch second and nano of second of the LocalDateTime taken as UTC
+    final long second;
+    final int nano;
+    //IPv4 address, big endian
+    final int address;
+    final int port;
+
+    private final int hash;
+    private final InetSocketAddress socketAddress;
+    //built on first use
+    private String text;
+
+    private NodeId(long second, int nano, int address, int port) {
+        this.second = second;
+        this.nano = nano;
+        this.address = address;
+        this.port = port;
+        int h = (int) (second ^ (second >>> 32));
+        h = h * 31 + nano;
+        h = h * 31 + address;
+        h = h * 31 + port;
+        this.hash = h * 0x9E3779B9;
+        try {
+            this.socketAddress = new InetSocketAddress(InetAddress.getByAddress(new byte[]{
+                    (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address}), port);
+        } catch (UnknownHostException e) {
+            //never thrown for a 4-byte address
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param second epoch second of the time stamp
+     * @param nano nano of second of the time stamp
+     * @param address IPv4 address, big endian
+     * @param port packet port
+     * @return the ID
+     */
+    static NodeId of(long second, int nano, int address, int port) {
+        return new NodeId(second, nano, address, port);
+    }
+
+    /**
+     * @param timeStamp time stamp the node started at
+     * @param address IPv4 address
+     * @param port packet port
+     * @return the ID
+     */
+    static NodeId of(LocalDateTime timeStamp, InetAddress address, int port) {
+        byte[] bytes = address.getAddress();
+        if (bytes.length != 4) {
+            throw new IllegalArgumentException("not an IPv4 address : " + address);
+        }
+        int ip = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+        return new NodeId(timeStamp.toEpochSecond(ZoneOffset.UTC), timeStamp.getNano(), ip, port);
+    }
+
+    /**
+     * parse the text form
+     * @param text LocalDateTime#ip:port
+     * @return the ID
+     */
+    static NodeId parse(String text) {
+        int hashIndex = text.indexOf('#');
+        int colonIndex = text.lastIndexOf(':');
+        if (hashIndex < 0 || colonIndex < hashIndex) {
+            throw new IllegalArgumentException("invalid node ID : " + text);
+        }
+        LocalDateTime timeStamp = LocalDateTime.parse(text.substring(0, hashIndex));
+        String[] octets = text.substring(hashIndex + 1, colonIndex).split("\\.");
+        if (octets.length != 4) {
+            throw new IllegalArgumentException("not an IPv4 node ID : " + text);
+        }
+        int ip = 0;
+        for (String octet : octets) {
+            int value = Integer.parseInt(octet);
+            if (value < 0 || value > 255) {
+                throw new IllegalArgumentException("not an IPv4 node ID : " + text);
+            }
+            ip = (ip << 8) | value;
+        }
+        int port = Integer.parseInt(text.substring(colonIndex + 1));
+        return new NodeId(timeStamp.toEpochSecond(ZoneOffset.UTC), timeStamp.getNano(), ip, port);
+    }
+
+    /**
+     * @return resolved socket address the node receives packets on
+     */
+    InetSocketAddress socketAddress() {
+        return socketAddress;
+    }
+
+    @Override
+    public int compareTo(NodeId other) {
+        return compareTo(other.second, other.nano, other.address, other.port);
+    }
+
+    /**
+     * compare with the fields of an ID, without creating it
+     * @return same as compareTo
+     */
+    int compareTo(long second, int nano, int address, int port) {
+        if (this.second != second) {
+            return Long.compare(this.second, second);
+        }
+        if (this.nano != nano) {
+            return Integer.compare(this.nano, nano);
+        }
+        if (this.address != address) {
+            return Integer.compareUnsigned(this.address, address);
+        }
+        return Integer.compare(this.port, port);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NodeId)) {
+            return false;
+        }
+        NodeId other = (NodeId) o;
+        return second == other.second && nano == other.nano && address == other.address && port == other.port;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        String result = text;
+        if (result == null) {
+            //LocalDateTime.toString() is what the node ID time stamp was taken from, so this round trips
+            result = LocalDateTime.ofEpochSecond(second, nano, ZoneOffset.UTC).toString() + "#"
+                    + (address >>> 24) + "." + ((address >>> 16) & 0xff) + "."
+                    + ((address >>> 8) & 0xff) + "." + (address & 0xff) + ":" + port;
+            text = result;
+        }
+        return result;
+    }
+}
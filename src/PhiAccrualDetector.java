@@ -0,0 +1,145 @@
+import java.util.Arrays;
+
+/**phi-accrual failure detector, selected with failureDetector=phi in the configuration file
+ * keeps a sliding window of heartbeat inter-arrival times per monitored member and turns the time
+ * since the last heartbeat into phi = -log10(probability that a heartbeat is still this late),
+ * assuming normally distributed intervals. a member fails once phi passes the threshold, so fast
+ * steady links are declared dead sooner than slow jittery ones.
+ * the acceptable pause is added to the mean interval: a GC pause or a burst of lost heartbeats up to
+ * that long costs no suspicion, even on a link so steady its standard deviation is at the minimum.
+ * state is indexed by membership slot. a window is a fixed-size ring of primitive intervals,
+ * allocated the first time a slot receives heartbeats and reused by later members of the slot,
+ * so recording a heartbeat allocates nothing.
+ */
+public class PhiAccrualDetector {
+    //a gap of more than this many estimated intervals means the member wasn't monitored in between
+    private static final int RESET_GAP = 10;
+    private static final int GROWTH = 1024;
+
+    private final double threshold;
+    private final int windowSize;
+    private final double minStdDeviation;
+    //time a heartbeat can be late beyond the mean interval before phi starts to rise
+    private final long acceptablePause;
+    //interval assumed before the first heartbeats arrive
+    private final long firstHeartbeatEstimate;
+
+    //per slot: member the window belongs to, ring of intervals, and the ring state
+    private NodeId[] owners = new NodeId[0];
+    private long[][] windows = new long[0][];
+    private int[] heads = new int[0];
+    private int[] counts = new int[0];
+    private long[] sums = new long[0];
+    private long[] squareSums = new long[0];
+    private long[] lastArrivals = new long[0];
+
+    /**
+     * constructor
+     * @param threshold phi above which a member is declared failed
+     * @param windowSize num of inter-arrival times kept per member
+     * @param minStdDeviation lower bound of the standard deviation, in ms, so a very steady link isn't failed on one late heartbeat
+     * @param acceptablePause time, in ms, a heartbeat can be late beyond the mean interval without raising phi
+     * @param firstHeartbeatEstimate interval assumed before the first heartbeats arrive, the heartbeat interval
+     */
+    PhiAccrualDetector(double threshold, int windowSize, double minStdDeviation, long acceptablePause,
+                       long firstHeartbeatEstimate) {
+        this.threshold = threshold;
+        this.windowSize = Math.max(windowSize, 1);
+        this.minStdDeviation = minStdDeviation;
+        this.acceptablePause = Math.max(acceptablePause, 0);
+        this.firstHeartbeatEstimate = firstHeartbeatEstimate;
+    }
+
+    /**
+     * record a heartbeat, called by the receiving thread
+     * @param slot membership slot of the member
+     * @param ID node ID of the member
+     * @param now arrival time
+     */
+    synchronized void heartbeat(int slot, NodeId ID, long now) {
+        ensureCapacity(slot);
+        long interval = now - lastArrivals[slot];
+        lastArrivals[slot] = now;
+        if (!ID.equals(owners[slot]) || interval > RESET_GAP * firstHeartbeatEstimate) {
+            //new member in the slot, or back after a gap, start a new window
+            owners[slot] = ID;
+            heads[slot] = 0;
+            counts[slot] = 0;
+            sums[slot] = 0;
+            squareSums[slot] = 0;
+            if (windows[slot] == null) {
+                windows[slot] = new long[windowSize];
+            }
+            return;
+        }
+
+        long[] window = windows[slot];
+        int index;
+        if (counts[slot] == windowSize) {
+            //full, the oldest interval is replaced
+            index = heads[slot];
+            long oldest = window[index];
+            sums[slot] -= oldest;
+            squareSums[slot] -= oldest * oldest;
+            heads[slot] = (index + 1) % windowSize;
+        } else {
+            index = (heads[slot] + counts[slot]) % windowSize;
+            counts[slot]++;
+        }
+        window[index] = interval;
+        sums[slot] += interval;
+        squareSums[slot] += interval * interval;
+    }
+
+    /**
+     * suspicion level of a member, continuous, 0 right after a heartbeat
+     * @param slot membership slot of the member
+     * @param ID node ID of the member
+     * @param lastSeen local time the last heartbeat of the member arrived
+     * @param now current time
+     * @return phi
+     */
+    synchronized double phi(int slot, NodeId ID, long lastSeen, long now) {
+        double mean = firstHeartbeatEstimate;
+        double stdDeviation = firstHeartbeatEstimate / 4.0;
+        if (slot < owners.length && ID.equals(owners[slot]) && counts[slot] > 0) {
+            int count = counts[slot];
+            mean = (double) sums[slot] / count;
+            stdDeviation = Math.sqrt(Math.max((double) squareSums[slot] / count - mean * mean, 0));
+        }
+        return phi(now - lastSeen, mean + acceptablePause, Math.max(stdDeviation, minStdDeviation));
+    }
+
+    /**
+     * @return whether the member is considered failed, phi is above the threshold
+     */
+    boolean isFailed(int slot, NodeId ID, long lastSeen, long now) {
+        return phi(slot, ID, lastSeen, now) > threshold;
+    }
+
+    /**
+     * -log10 of the normal tail probability, with the logistic approximation of the normal CDF
+     */
+    private static double phi(long timeDiff, double mean, double stdDeviation) {
+        double y = (timeDiff - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (timeDiff > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    private void ensureCapacity(int slot) {
+        if (slot < owners.length) {
+            return;
+        }
+        int capacity = (slot / GROWTH + 1) * GROWTH;
+        owners = Arrays.copyOf(owners, capacity);
+        windows = Arrays.copyOf(windows, capacity);
+        heads = Arrays.copyOf(heads, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        sums = Arrays.copyOf(sums, capacity);
+        squareSums = Arrays.copyOf(squareSums, capacity);
+        lastArrivals = Arrays.copyOf(lastArrivals, capacity);
+    }
+}
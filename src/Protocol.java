@@ -1,64 +1,273 @@
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**send heart beat and send gossip
  * Created by haosun on 11/3/17.
  */
 public class Protocol {
+    //relay number of a new update with fixed dissemination, the minimum with scaled dissemination
+    static final int GOSSIP_TTL = 2;
+    //num of random members a gossip is sent to with fixed dissemination, the minimum with scaled dissemination
+    static final int GOSSIP_FANOUT = 2;
+
+    /**random order the gossip targets are taken in, one per sending thread
+     * a lazy Fisher-Yates shuffle of the snapshot indices: every pick swaps a random index of the
+     * rest of the round to the front, so a pick is O(1), every member is picked once per round, and
+     * the order of every round is a new random permutation. the order is only rebuilt when the
+     * membership list changes size, which rebuilds the O(N) snapshot anyway.
+     */
+    private static final class TargetOrder {
+        private int[] order = new int[0];
+        private int position;
+
+        /**
+         * @param size num of members in the snapshot
+         * @return index of the next member
+         */
+        int next(int size) {
+            if (order.length != size) {
+                order = new int[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = i;
+                }
+                position = 0;
+            }
+            if (position == size) {
+                position = 0;
+            }
+            int pick = position + Daemon.random.nextInt(size - position);
+            int index = order[pick];
+            order[pick] = order[position];
+            order[position++] = index;
+            return index;
+        }
+    }
+
+    //every sending thread gets its own codec, reused for every message
+    private static final ThreadLocal<MessageCodec> codecs = ThreadLocal.withInitial(MessageCodec::new);
+    private static final ThreadLocal<TargetOrder> targetOrders = ThreadLocal.withInitial(TargetOrder::new);
+
+    /**
+     * @return relay number of a new update for the current group size
+     */
+    static int gossipTTL() {
+        return Daemon.dissemination.TTL(Daemon.membership.size());
+    }
+
+    /**
+     * @return num of random members a gossip is sent to for the current group size
+     */
+    static int gossipFanout() {
+        return Daemon.dissemination.fanout(Daemon.membership.size());
+    }
+
     /**
-     * send heartbeat to all neighbours
+     * send heartbeat to all neighbours, with pending membership updates piggybacked.
+     * if there are updates, the heartbeat also goes to gossipFanout() random members to spread them
      * @param ID node ID
      * @param counter heartbeat counter
-     * @param sendSocket send socket
+     * @param incarnation incarnation of the node
+     * @param transport transport used to send the message
      */
-    public static void sendHeartBeat(String ID, long counter, DatagramSocket sendSocket) {
-        byte[] heartBeatMessage = ("0_" + ID + "_" + counter).getBytes();
-
-        for (String neighbour : Daemon.neighbours) {
-            try {
-                DatagramPacket heartBeatPacket = new DatagramPacket(heartBeatMessage, heartBeatMessage.length,
-                        InetAddress.getByName(neighbour.split("#")[1]), Daemon.packetPortNumber);
-                sendSocket.send(heartBeatPacket);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    public static void sendHeartBeat(NodeId ID, long counter, long incarnation, Transport transport) {
+        MessageCodec codec = codecs.get();
+        codec.begin(MessageCodec.TYPE_HEARTBEAT, ID, Action.HEARTBEAT, counter, incarnation, 0);
+        int piggybacked = Daemon.updates.drainInto(codec);
+        ByteBuffer heartBeatMessage = codec.finish();
+
+        MembershipStore.Snapshot snapshot = Daemon.membership.snapshot();
+        for (NodeId neighbour : snapshot.neighbourIDs) {
+            send(heartBeatMessage, neighbour, transport);
+        }
+
+        if (piggybacked > 0) {
+            sendToRandomMembers(snapshot, heartBeatMessage,
+                    Daemon.dissemination.fanout(snapshot.IDs.length), transport);
         }
     }
 
     /**
-     * send gossip message to randomly chosen members
+     * send a gossip message to randomly chosen members right away.
+     * only for updates that can't wait for the next heartbeat, others go through Daemon.updates.
+     * the update is traced if Daemon.tracing is set
      * @param ID node id
      * @param action action
      * @param counter heartbeat counter
+     * @param incarnation incarnation of the node
      * @param TTL relay number
      * @param numOfTarget num of members to send gossip to
-     * @param sendSocket the socket used to send the message
+     * @param transport transport used to send the message
+     */
+    public static void sendGossip(NodeId ID, Action action, long counter, long incarnation, int TTL, int numOfTarget,
+                                  Transport transport) {
+        ByteBuffer gossipMessage;
+        Tracing tracing = Daemon.tracing;
+        if (tracing == null) {
+            gossipMessage = codecs.get().encodeGossip(ID, action, counter, incarnation, TTL);
+        } else {
+            long now = Daemon.clock.getAsLong();
+            tracing.started(ID, action, incarnation, now);
+            gossipMessage = codecs.get().encodeGossip(ID, action, counter, incarnation, TTL, Daemon.ID, now, 1);
+        }
+        sendToRandomMembers(Daemon.membership.snapshot(), gossipMessage, numOfTarget, transport);
+    }
+
+    /**
+     * send a gossip message to one node
+     * @param ID node id
+     * @param action action
+     * @param counter heartbeat counter
+     * @param incarnation incarnation of the node
+     * @param TTL relay number, 1 if the target doesn't relay it
+     * @param target node the message is sent to
+     * @param transport transport used to send the message
+     */
+    static void sendGossip(NodeId ID, Action action, long counter, long incarnation, int TTL, NodeId target,
+                           Transport transport) {
+        send(codecs.get().encodeGossip(ID, action, counter, incarnation, TTL), target, transport);
+    }
+
+    /**
+     * send one update to one node, piggybacked on a heartbeat of this node so the target knows who
+     * sent it, a suspected node answers the suspicion with its refutation to the sender
+     * @param ID node id
+     * @param action action
+     * @param counter heartbeat counter
+     * @param incarnation incarnation of the node
+     * @param target node the message is sent to
+     * @param transport transport used to send the message
      */
-    public static void sendGossip(String ID, String action, long counter, int TTL, int numOfTarget, DatagramSocket sendSocket) {
-        byte[] gossipMessage = ("1_" + ID + "_" + action + "_" + counter + "_" + TTL).getBytes();
-        int membershipListSize = Daemon.membershipList.size();
-        List<Integer> randomIndex = new ArrayList<>();
-        for (int i = 0; i < membershipListSize; i++) {
-            randomIndex.add(i);
+    static void sendUpdate(NodeId ID, Action action, long counter, long incarnation, NodeId target,
+                           Transport transport) {
+        int slot = Daemon.membership.slotOf(Daemon.ID);
+        if (slot < 0) {
+            return;
         }
-        Collections.shuffle(randomIndex);
-
-        Object[] memberIDs = Daemon.membershipList.keySet().toArray();
-        for (int i = 0; i < Math.min(numOfTarget, membershipListSize); i++) {
-            try {
-                InetAddress targetAddress = InetAddress.getByName(((String) memberIDs[randomIndex.get(i)]).split("#")[1]);
-                DatagramPacket gossipPacket = new DatagramPacket(gossipMessage, gossipMessage.length,
-                        targetAddress, Daemon.packetPortNumber);
-                sendSocket.send(gossipPacket);
-            } catch (IOException e) {
-                e.printStackTrace();
+        MessageCodec codec = codecs.get();
+        codec.begin(MessageCodec.TYPE_HEARTBEAT, Daemon.ID, Action.HEARTBEAT, Daemon.membership.counter(slot),
+                Daemon.membership.incarnation(slot), 0);
+        codec.putUpdate(ID, action, counter, incarnation, 1);
+        send(codec.finish(), target, transport);
+    }
+
+    /**
+     * send a probe message of the SWIM detector, with pending membership updates piggybacked
+     * @param type MessageCodec.TYPE_PING, TYPE_ACK or TYPE_PING_REQ
+     * @param ID node ID in the message entry, the sender or, for relayed acks, the node that was pinged
+     * @param sequence probe sequence number
+     * @param subject subject of the probe
+     * @param target node the message is sent to
+     * @param transport transport used to send the message
+     */
+    static void sendProbe(byte type, NodeId ID, long sequence, NodeId subject, NodeId target, Transport transport) {
+        MessageCodec codec = codecs.get();
+        codec.beginProbe(type, ID, sequence, subject);
+        Daemon.updates.drainInto(codec);
+        send(codec.finish(), target, transport);
+    }
+
+    /**
+     * send the digest of the anti-entropy
+     * @param ID node ID of the sender
+     * @param reply whether the target should send its digest back
+     * @param digest bucket hashes of the membership list
+     * @param target node the message is sent to
+     * @param transport transport used to send the message
+     */
+    static void sendSync(NodeId ID, boolean reply, int[] digest, NodeId target, Transport transport) {
+        send(codecs.get().encodeSync(ID, reply, digest), target, transport);
+    }
+
+    /**
+     * send entries of the membership list, in as many delta messages as they need
+     * @param ID node ID of the sender
+     * @param IDs node IDs of the entries
+     * @param actions ADD for members, REMOVE for removed members
+     * @param counters heartbeat counters
+     * @param incarnations incarnations
+     * @param count num of entries
+     * @param target node the messages are sent to
+     * @param transport transport used to send the messages
+     */
+    static void sendDelta(NodeId ID, NodeId[] IDs, Action[] actions, long[] counters, long[] incarnations, int count,
+                          NodeId target, Transport transport) {
+        MessageCodec codec = codecs.get();
+        int i = 0;
+        while (i < count) {
+            codec.begin(MessageCodec.TYPE_DELTA, ID, Action.HEARTBEAT, 0, 0, 0);
+            while (i < count && codec.putUpdate(IDs[i], actions[i], counters[i], incarnations[i], 0)) {
+                i++;
+            }
+            send(codec.finish(), target, transport);
+        }
+    }
+
+    /**
+     * send zone summaries, in as many zones messages as they need
+     * @param ID node ID of the sender
+     * @param reply whether the target should send its newer summaries back
+     * @param summaries the summaries
+     * @param target packet port of the node the messages are sent to
+     * @param transport transport used to send the messages
+     */
+    static void sendZones(NodeId ID, boolean reply, List<Zones.Summary> summaries, InetSocketAddress target,
+                          Transport transport) {
+        MessageCodec codec = codecs.get();
+        int i = 0;
+        do {
+            codec.beginZones(ID, reply);
+            while (i < summaries.size() && codec.putZone(summaries.get(i).label, summaries.get(i).version,
+                    summaries.get(i).members, summaries.get(i).delegates)) {
+                i++;
+            }
+            send(codec.finish(), target, transport);
+        } while (i < summaries.size());
+    }
+
+    /**
+     * send a message to randomly chosen members other than this node, in O(numOfTarget)
+     * @param snapshot membership snapshot the members are chosen from
+     * @param message the message
+     * @param numOfTarget num of members to send the message to
+     * @param transport transport used to send the message
+     */
+    private static void sendToRandomMembers(MembershipStore.Snapshot snapshot, ByteBuffer message,
+                                            int numOfTarget, Transport transport) {
+        int membershipListSize = snapshot.IDs.length;
+        TargetOrder targetOrder = targetOrders.get();
+
+        int sent = 0;
+        //at most one pick per member, this node may be the only one
+        for (int i = 0; i < membershipListSize && sent < numOfTarget; i++) {
+            NodeId memberID = snapshot.IDs[targetOrder.next(membershipListSize)];
+            if (memberID.equals(Daemon.ID)) {
+                continue;
             }
+            if (send(message, memberID, transport)) {
+                sent++;
+            }
+        }
+    }
+
+    /**
+     * send an encoded message and count it in Metrics by its message type
+     * @return whether the message was sent
+     */
+    private static boolean send(ByteBuffer message, NodeId target, Transport transport) {
+        return send(message, target.socketAddress(), transport);
+    }
+
+    private static boolean send(ByteBuffer message, InetSocketAddress target, Transport transport) {
+        try {
+            transport.send(message, target);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
         }
+        //the type follows the version byte
+        Metrics.sent(message.get(message.position() + 1), message.remaining());
+        return true;
     }
 }
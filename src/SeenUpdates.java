@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**cache of the gossiped updates this node already received, so each update is relayed and applied once
+ * an update is keyed by (node ID, action, incarnation) and stored as a 64-bit fingerprint in open addressing
+ * tables of primitive longs. there are two generations: new fingerprints go into the current one, and
+ * when it is full or older than the expiry the previous one is cleared and becomes the current one.
+ * so a fingerprint is remembered for at least the expiry unless more than capacity updates arrive
+ * within it, and memory is fixed at two tables however much churn there is.
+ * a fingerprint collision makes a novel update look like a duplicate, at 64 bits that never happens
+ * in practice, and the update would still arrive over the other paths once the entry expires.
+ * the counter is not part of the key: nodes that detect the same failure or the same rejoin send it with
+ * the counters they last saw, it is still one update and relayed once.
+ */
+public class SeenUpdates {
+    //fingerprint of an empty table entry, a real fingerprint of 0 is stored as 1
+    private static final long EMPTY = 0;
+
+    //max num of fingerprints per generation
+    private final int capacity;
+    private final long expiry;
+    private final int mask;
+
+    private long[] current;
+    private long[] previous;
+    private int currentSize;
+    private long rotatedAt;
+
+    /**
+     * constructor
+     * @param capacity max num of fingerprints per generation
+     * @param expiry time an update is remembered at least, in ms
+     */
+    SeenUpdates(int capacity, long expiry) {
+        this.capacity = Math.max(capacity, 1);
+        this.expiry = expiry;
+        //load factor at most one half
+        int size = Integer.highestOneBit(Math.max(this.capacity * 2, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.current = new long[size];
+        this.previous = new long[size];
+        this.rotatedAt = Daemon.clock.getAsLong();
+    }
+
+    /**
+     * remember an update
+     * @param ID node ID
+     * @param action action
+     * @param incarnation incarnation of the node
+     * @param now current time
+     * @return whether the update is new, false if it was seen within the expiry
+     */
+    synchronized boolean add(NodeId ID, Action action, long incarnation, long now) {
+        if (now - rotatedAt >= expiry || currentSize >= capacity) {
+            long[] cleared = previous;
+            Arrays.fill(cleared, EMPTY);
+            previous = current;
+            current = cleared;
+            currentSize = 0;
+            rotatedAt = now;
+        }
+        long fingerprint = fingerprint(ID, action, incarnation);
+        if (contains(previous, fingerprint)) {
+            return false;
+        }
+        int index = index(fingerprint);
+        while (current[index] != EMPTY) {
+            if (current[index] == fingerprint) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        current[index] = fingerprint;
+        currentSize++;
+        return true;
+    }
+
+    private boolean contains(long[] table, long fingerprint) {
+        int index = index(fingerprint);
+        while (table[index] != EMPTY) {
+            if (table[index] == fingerprint) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    private int index(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+
+    private static long fingerprint(NodeId ID, Action action, long incarnation) {
+        long h = mix(ID.second);
+        h = mix(h ^ (((long) ID.nano << 32) | (ID.port & 0xffffL)));
+        h = mix(h ^ (((long) ID.address << 32) | action.ordinal()));
+        h = mix(h ^ incarnation);
+        return h == EMPTY ? 1 : h;
+    }
+
+    /**
+     * 64-bit finalizer of SplitMix64
+     */
+    static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,670 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Random;
+
+/**in-JVM deterministic cluster simulator
+ * runs many nodes in one process on virtual time. the protocol code is the real one: before a node
+ * handles a datagram or runs its timers, the simulator points the static state of Daemon at that
+ * node (ID, membership, updates, timers, detectors). one thread steps every node in turn, and all
+ * randomness comes from one seeded Random, so a run is fully determined by its options.
+ * every node keeps a full membership list, so memory grows with the square of the node count.
+ * usage : java Simulator [option=value ...]
+ * nodes=1000            number of nodes, node 0 is the introducer
+ * seconds=60            simulated time
+ * seed=1                seed of all randomness
+ * detector=ring         ring, phi or swim, same as failureDetector in the configuration file
+ * heartbeatInterval=900 same as in the configuration file
+ * suspicionTimeout=3000 same as in the configuration file
+ * monitorNeighbours=1   same as in the configuration file
+ * gossipRetransmits=2   same as in the configuration file
+ * dissemination=fixed   same as in the configuration file
+ * gossipRetransmitMultiplier=1 same as in the configuration file
+ * syncInterval=5000     same as in the configuration file, 0 turns anti-entropy off
+ * zones=0               num of zones, node i is in zone i % zones, 0 for one flat group, see Zones
+ * zoneInterval=1000     same as in the configuration file
+ * joinInterval=10       ms between two joins at the start
+ * loss=0                probability a datagram is dropped
+ * delay=1               minimum one-way delay in ms
+ * jitter=0              extra delay, uniform up to this many ms
+ * crashes=0             number of nodes crashed at crashAt, never the introducer
+ * crashAt=30            second the crashes happen
+ * partitionAt=-1        second a partition starts, -1 for none
+ * partitionFor=10       seconds the partition lasts
+ * partitionFraction=0.5 fraction of the nodes on the introducer side
+ * trace=                trace file of all the nodes, see Tracing and TraceMerge, empty for none
+ * reports convergence time, false positives, detection latency and messages and bytes per node
+ */
+public class Simulator {
+    //timers of the nodes are advanced at this resolution, same as the tick of Daemon.timers
+    private static final long TICK = 10;
+    //interval between two convergence checks
+    private static final long CHECK_INTERVAL = 100;
+    //time a joining node waits for the membership list, and attempts, same as Daemon.joinGroup
+    private static final long JOIN_TIMEOUT = 2000;
+    private static final int JOIN_ATTEMPTS = 3;
+    //first ID time stamp, nodes are stamped with their join time after it
+    private static final long EPOCH_SECOND = 1500000000L;
+    private static final int PACKET_PORT = 10100;
+    private static final int JOIN_PORT = 10000;
+
+    private static final int PACKET = 0;
+    private static final int JOIN_REQUEST = 1;
+    private static final int JOIN_CHUNK = 2;
+
+    /**one simulated node, holds everything Daemon keeps statically
+     */
+    private static final class Node {
+        final int index;
+        NodeId ID;
+        InetSocketAddress joinAddress;
+        MembershipStore membership;
+        UpdateBuffer updates;
+        SeenUpdates seenUpdates;
+        AntiEntropy antiEntropy;
+        Zones zones;
+        TimerWheel timers;
+        Suspicion suspicion;
+        SwimDetector swim;
+        PhiAccrualDetector phi;
+        HeartbeatThread heartbeat;
+        MonitorThread monitor;
+        IntroducerThread introducer;
+        JoinSender joinSender;
+        Transport transport;
+
+        JoinTransfer.Receiver joinReceiver;
+        long joinDeadline;
+        int joinAttempts;
+        boolean started;
+        boolean crashed;
+        long crashTime;
+        //time of the first FAILURE of this node anywhere, and of its removal from every live node
+        long detectedAt = -1;
+        long removedAt = -1;
+
+        long messagesSent;
+        long bytesSent;
+
+        Node(int index) {
+            this.index = index;
+        }
+    }
+
+    /**a datagram in flight
+     */
+    private static final class Delivery implements Comparable<Delivery> {
+        final long time;
+        final long sequence;
+        final int kind;
+        final Node from;
+        final Node to;
+        final byte[] data;
+
+        Delivery(long time, long sequence, int kind, Node from, Node to, byte[] data) {
+            this.time = time;
+            this.sequence = sequence;
+            this.kind = kind;
+            this.from = from;
+            this.to = to;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Delivery other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    //options
+    private final int nodeCount;
+    private final long duration;
+    private final String detector;
+    private final int heartbeatInterval;
+    private final long suspicionTimeout;
+    private final int monitorNeighbours;
+    private final Dissemination dissemination;
+    private final long syncInterval;
+    private final int zoneCount;
+    private final long zoneInterval;
+    private final long joinInterval;
+    private final double loss;
+    private final long delay;
+    private final int jitter;
+    private final int crashes;
+    private final long crashAt;
+    private final long partitionStart;
+    private final long partitionEnd;
+    private final int partitionSize;
+    private final String tracePath;
+
+    private final Random random;
+    private final Node[] nodes;
+    private final Map<InetSocketAddress, Node> byAddress = new HashMap<>();
+    private final Map<InetSocketAddress, Node> byJoinAddress = new HashMap<>();
+    private final Map<NodeId, Node> byID = new HashMap<>();
+    private final PriorityQueue<Delivery> inFlight = new PriorityQueue<>();
+    private final MessageCodec codec = new MessageCodec();
+
+    private long now;
+    private long deliverySequence;
+    private int nextJoin;
+    private final List<Node> joining = new ArrayList<>();
+    private int failedJoins;
+
+    //phases the cluster has to converge after, with the time each started and converged
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> phaseStarts = new ArrayList<>();
+    private final List<Long> phaseConverged = new ArrayList<>();
+
+    private long falsePositives;
+    private long falsePositivesInPartition;
+    private long failureDetections;
+    private long suspicions;
+    private long refutations;
+
+    private Simulator(Properties options) {
+        nodeCount = Integer.parseInt(options.getProperty("nodes", "1000"));
+        duration = Long.parseLong(options.getProperty("seconds", "60")) * 1000;
+        detector = options.getProperty("detector", "ring");
+        heartbeatInterval = Integer.parseInt(options.getProperty("heartbeatInterval", "900"));
+        suspicionTimeout = Long.parseLong(options.getProperty("suspicionTimeout", "3000"));
+        monitorNeighbours = Integer.parseInt(options.getProperty("monitorNeighbours", "1"));
+        boolean scaled = options.getProperty("dissemination", "fixed").equals("scaled");
+        dissemination = new Dissemination(scaled, scaled
+                ? Integer.parseInt(options.getProperty("gossipRetransmitMultiplier", "1"))
+                : Integer.parseInt(options.getProperty("gossipRetransmits", "2")));
+        syncInterval = Long.parseLong(options.getProperty("syncInterval", "5000"));
+        zoneCount = Integer.parseInt(options.getProperty("zones", "0"));
+        zoneInterval = Long.parseLong(options.getProperty("zoneInterval", "1000"));
+        joinInterval = Long.parseLong(options.getProperty("joinInterval", "10"));
+        loss = Double.parseDouble(options.getProperty("loss", "0"));
+        delay = Long.parseLong(options.getProperty("delay", "1"));
+        jitter = Integer.parseInt(options.getProperty("jitter", "0"));
+        crashes = Math.min(Integer.parseInt(options.getProperty("crashes", "0")), nodeCount - 1);
+        crashAt = Long.parseLong(options.getProperty("crashAt", "30")) * 1000;
+        long partitionAt = Long.parseLong(options.getProperty("partitionAt", "-1"));
+        partitionStart = partitionAt < 0 ? Long.MAX_VALUE : partitionAt * 1000;
+        partitionEnd = partitionAt < 0 ? Long.MAX_VALUE
+                : partitionStart + Long.parseLong(options.getProperty("partitionFor", "10")) * 1000;
+        partitionSize = (int) (nodeCount * Double.parseDouble(options.getProperty("partitionFraction", "0.5")));
+        tracePath = options.getProperty("trace", "").trim();
+
+        random = new Random(Long.parseLong(options.getProperty("seed", "1")));
+        nodes = new Node[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = new Node(i);
+        }
+    }
+
+    /**
+     * point the static state of Daemon at a node
+     */
+    private void enter(Node node) {
+        Daemon.ID = node.ID;
+        Daemon.membership = node.membership;
+        Daemon.updates = node.updates;
+        Daemon.seenUpdates = node.seenUpdates;
+        Daemon.antiEntropy = node.antiEntropy;
+        Daemon.zones = node.zones;
+        Daemon.timers = node.timers;
+        Daemon.suspicion = node.suspicion;
+        Daemon.swim = node.swim;
+        Daemon.phi = node.phi;
+        Daemon.joinSender = node.joinSender;
+    }
+
+    /**
+     * create the state of a node that is about to join, IDs are stamped with the join time
+     */
+    private void create(Node node) {
+        int address = 0x0A000000 + node.index + 1;
+        node.ID = NodeId.of(EPOCH_SECOND + now / 1000, (int) (now % 1000) * 1000000, address, PACKET_PORT);
+        node.joinAddress = new InetSocketAddress(node.ID.socketAddress().getAddress(), JOIN_PORT);
+        byAddress.put(node.ID.socketAddress(), node);
+        byJoinAddress.put(node.joinAddress, node);
+        byID.put(node.ID, node);
+
+        node.membership = new MembershipStore(node.ID, monitorNeighbours);
+        node.updates = new UpdateBuffer();
+        node.seenUpdates = new SeenUpdates(4096, 10000);
+        if (syncInterval > 0) {
+            node.antiEntropy = new AntiEntropy(syncInterval);
+        }
+        if (zoneCount > 0) {
+            node.zones = new Zones(zoneOf(node), zoneInterval, 2, 10 * zoneInterval,
+                    Collections.singletonList(nodes[0].ID.socketAddress()));
+        }
+        node.timers = new TimerWheel(TICK, 64);
+        node.joinSender = new JoinSender();
+        node.suspicion = new Suspicion(suspicionTimeout, 4, detector.equals("swim") ? 1000 : heartbeatInterval);
+        if (detector.equals("swim")) {
+            node.swim = new SwimDetector(1000, 300, 3);
+        } else if (detector.equals("phi")) {
+            node.phi = new PhiAccrualDetector(8, 100, 100, heartbeatInterval, heartbeatInterval);
+        }
+        node.monitor = new MonitorThread();
+        node.transport = (message, target) -> send(node, message, target);
+        enter(node);
+        node.heartbeat = new HeartbeatThread(heartbeatInterval);
+        if (node.index == 0) {
+            node.introducer = new IntroducerThread();
+        }
+    }
+
+    /**
+     * start the periodic tasks of a node that has its membership list, in its context
+     */
+    private void start(Node node) {
+        node.started = true;
+        node.heartbeat.schedule(node.transport);
+        node.joinSender.start(node.transport, false);
+        if (node.swim != null) {
+            node.swim.start(node.transport);
+        } else {
+            node.monitor.start(node.transport);
+        }
+        if (node.antiEntropy != null) {
+            node.antiEntropy.start(node.transport);
+        }
+        if (node.zones != null) {
+            node.zones.start(node.transport);
+        }
+    }
+
+    private String zoneOf(Node node) {
+        return "zone" + zoneIndex(node);
+    }
+
+    private int zoneIndex(Node node) {
+        return zoneCount > 0 ? node.index % zoneCount : 0;
+    }
+
+    private void sendJoinRequest(Node node) {
+        node.joinReceiver = new JoinTransfer.Receiver();
+        node.joinDeadline = now + JOIN_TIMEOUT;
+        node.joinAttempts++;
+        String ID = node.ID.toString();
+        byte[] request = (node.zones == null ? ID : ID + " " + node.zones.zone).getBytes(StandardCharsets.UTF_8);
+        node.messagesSent++;
+        node.bytesSent += request.length;
+        schedule(JOIN_REQUEST, node, nodes[0], request);
+    }
+
+    /**
+     * the transport of every node, a datagram is dropped, delayed and delivered to the node at the target
+     */
+    private void send(Node from, ByteBuffer message, InetSocketAddress target) {
+        from.messagesSent++;
+        from.bytesSent += message.remaining();
+        int kind = PACKET;
+        Node to = byAddress.get(target);
+        if (to == null) {
+            to = byJoinAddress.get(target);
+            kind = JOIN_CHUNK;
+        }
+        if (to == null) {
+            return;
+        }
+        if (!to.started) {
+            //answer to a join message, a joining node takes it like JoinClient
+            kind = JOIN_CHUNK;
+        }
+        byte[] data = new byte[message.remaining()];
+        message.duplicate().get(data);
+        schedule(kind, from, to, data);
+    }
+
+    private void schedule(int kind, Node from, Node to, byte[] data) {
+        if (random.nextDouble() < loss || isPartitioned(from, to, now)) {
+            return;
+        }
+        long arrival = now + delay + (jitter > 0 ? random.nextInt(jitter + 1) : 0);
+        inFlight.add(new Delivery(arrival, deliverySequence++, kind, from, to, data));
+    }
+
+    private boolean isPartitioned(Node from, Node to, long time) {
+        return time >= partitionStart && time < partitionEnd
+                && (from.index < partitionSize) != (to.index < partitionSize);
+    }
+
+    private void deliver(Delivery delivery) {
+        Node node = delivery.to;
+        if (node.crashed) {
+            return;
+        }
+        enter(node);
+        switch (delivery.kind) {
+            case PACKET:
+                //a node listens on the packet port only once it has joined
+                if (node.started) {
+                    ListeningThread.handleMessage(codec, ByteBuffer.wrap(delivery.data),
+                            delivery.from.ID.socketAddress(), node.transport);
+                }
+                break;
+            case JOIN_REQUEST:
+                if (node.introducer != null && node.started) {
+                    try {
+                        node.introducer.handleRequest(delivery.data, delivery.data.length,
+                                delivery.from.joinAddress, node.transport);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                break;
+            case JOIN_CHUNK:
+                if (node.started || node.joinReceiver == null) {
+                    break;
+                }
+                node.joinReceiver.accept(new DatagramPacket(delivery.data, delivery.data.length));
+                if (node.joinReceiver.isComplete() && node.joinReceiver.isRedirect()) {
+                    //ask the delegates of its zone, their lists arrive like the one of the introducer
+                    NodeId[] delegates = node.joinReceiver.readRedirect(codec);
+                    node.joinReceiver = new JoinTransfer.Receiver();
+                    if (delegates != null) {
+                        codec.begin(MessageCodec.TYPE_JOIN, node.ID, Action.ADD, 0, 0, 0);
+                        ByteBuffer join = codec.finish();
+                        for (NodeId delegate : delegates) {
+                            send(node, join.duplicate(), delegate.socketAddress());
+                        }
+                    }
+                } else if (node.joinReceiver.isComplete()) {
+                    if (node.joinReceiver.readInto(node.membership, codec)) {
+                        Daemon.writeLog("JOIN", node.ID);
+                        joining.remove(node);
+                        start(node);
+                    }
+                    node.joinReceiver = null;
+                }
+                break;
+        }
+    }
+
+    /**
+     * count detections, the context is the detecting node
+     */
+    private void onEvent(String action, NodeId nodeID) {
+        if (action.equals("SUSPECT")) {
+            suspicions++;
+            return;
+        }
+        if (action.equals("REFUTE")) {
+            refutations++;
+            return;
+        }
+        if (!action.equals("FAILURE")) {
+            return;
+        }
+        failureDetections++;
+        Node node = byID.get(nodeID);
+        if (node == null) {
+            return;
+        }
+        if (!node.crashed) {
+            falsePositives++;
+            if (isPartitioned(byID.get(Daemon.ID), node, now)) {
+                falsePositivesInPartition++;
+            }
+        } else if (node.detectedAt < 0) {
+            node.detectedAt = now;
+        }
+    }
+
+    private void startPhase(String name) {
+        phases.add(name);
+        phaseStarts.add(now);
+        phaseConverged.add(-1L);
+    }
+
+    /**
+     * converged when every live node knows exactly the live nodes of its zone and has a summary of every zone,
+     * and record crashed nodes that are gone everywhere
+     */
+    private void checkConvergence() {
+        int[] live = new int[Math.max(zoneCount, 1)];
+        for (Node node : nodes) {
+            if (node.started && !node.crashed) {
+                live[zoneIndex(node)]++;
+            }
+        }
+        int liveZones = 0;
+        for (int count : live) {
+            liveZones += count > 0 ? 1 : 0;
+        }
+        boolean converged = joining.isEmpty() && nextJoin == nodeCount;
+        for (Node node : nodes) {
+            if (node.started && !node.crashed && (node.membership.size() != live[zoneIndex(node)]
+                    || node.zones != null && node.zones.summaries().size() != liveZones)) {
+                converged = false;
+                break;
+            }
+        }
+        for (Node crashed : nodes) {
+            if (!crashed.crashed || crashed.removedAt >= 0) {
+                continue;
+            }
+            boolean removed = true;
+            for (Node node : nodes) {
+                if (node.started && !node.crashed && node.membership.slotOf(crashed.ID) >= 0) {
+                    removed = false;
+                    converged = false;
+                    break;
+                }
+            }
+            if (removed) {
+                crashed.removedAt = now;
+            }
+        }
+        int last = phases.size() - 1;
+        if (converged && last >= 0 && phaseConverged.get(last) < 0) {
+            phaseConverged.set(last, now);
+        }
+    }
+
+    private void run() {
+        Daemon.clock = () -> now;
+        Daemon.random = random;
+        Daemon.dissemination = dissemination;
+        Daemon.joinCompression = true;
+        Daemon.eventListener = this::onEvent;
+        if (!tracePath.isEmpty()) {
+            try {
+                Daemon.tracing = new Tracing(Paths.get(tracePath));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        long nextTick = 0;
+        boolean crashed = false;
+        boolean partitioned = false;
+        while (true) {
+            long next = nextTick;
+            if (!inFlight.isEmpty() && inFlight.peek().time < next) {
+                next = inFlight.peek().time;
+            }
+            if (next > duration) {
+                break;
+            }
+            now = next;
+            while (!inFlight.isEmpty() && inFlight.peek().time <= now) {
+                deliver(inFlight.poll());
+            }
+            if (now < nextTick) {
+                continue;
+            }
+
+            //joins, the introducer first
+            while (nextJoin < nodeCount && nextJoin * joinInterval <= now) {
+                Node node = nodes[nextJoin++];
+                create(node);
+                if (node.index == 0) {
+                    node.membership.add(node.ID, 0, 0, now);
+                    Daemon.writeLog("JOIN", node.ID);
+                    start(node);
+                } else {
+                    joining.add(node);
+                    sendJoinRequest(node);
+                }
+                if (nextJoin == nodeCount) {
+                    startPhase("last join");
+                }
+            }
+            for (int i = joining.size() - 1; i >= 0; i--) {
+                Node node = joining.get(i);
+                if (node.joinDeadline <= now) {
+                    if (node.joinAttempts < JOIN_ATTEMPTS) {
+                        sendJoinRequest(node);
+                    } else {
+                        joining.remove(i);
+                        failedJoins++;
+                    }
+                }
+            }
+
+            if (!crashed && crashes > 0 && now >= crashAt) {
+                crashed = true;
+                crash();
+                startPhase(crashes + " crashes");
+            }
+            if (!partitioned && now >= partitionStart) {
+                partitioned = true;
+                startPhase("partition start");
+            }
+            if (partitioned && now == partitionEnd) {
+                startPhase("partition end");
+            }
+
+            for (Node node : nodes) {
+                if (node.started && !node.crashed) {
+                    enter(node);
+                    node.timers.advance(now);
+                }
+            }
+            if (now % CHECK_INTERVAL == 0) {
+                checkConvergence();
+            }
+            nextTick += TICK;
+        }
+        report();
+        if (Daemon.tracing != null) {
+            Daemon.tracing.close();
+            System.out.println("trace written to " + tracePath + ", see TraceMerge");
+        }
+    }
+
+    private void crash() {
+        List<Node> candidates = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.index != 0 && node.started) {
+                candidates.add(node);
+            }
+        }
+        for (int i = 0; i < crashes && !candidates.isEmpty(); i++) {
+            Node node = candidates.remove(random.nextInt(candidates.size()));
+            node.crashed = true;
+            node.crashTime = now;
+        }
+    }
+
+    private void report() {
+        double seconds = duration / 1000.0;
+        long messages = 0;
+        long bytes = 0;
+        for (Node node : nodes) {
+            messages += node.messagesSent;
+            bytes += node.bytesSent;
+        }
+        System.out.println("===============================");
+        System.out.println("nodes : " + nodeCount + ", detector : " + detector + ", simulated : " + seconds + " s");
+        System.out.println("loss : " + loss + ", delay : " + delay + " ms + up to " + jitter + " ms");
+        if (failedJoins > 0) {
+            System.out.println("failed joins : " + failedJoins);
+        }
+        for (int i = 0; i < phases.size(); i++) {
+            long converged = phaseConverged.get(i);
+            System.out.println("convergence after " + phases.get(i) + " : "
+                    + (converged < 0 ? "not converged" : (converged - phaseStarts.get(i)) + " ms"));
+        }
+
+        long detected = 0;
+        long detectionSum = 0;
+        long detectionMax = 0;
+        long removed = 0;
+        long removalSum = 0;
+        long removalMax = 0;
+        for (Node node : nodes) {
+            if (!node.crashed) {
+                continue;
+            }
+            if (node.detectedAt >= 0) {
+                detected++;
+                detectionSum += node.detectedAt - node.crashTime;
+                detectionMax = Math.max(detectionMax, node.detectedAt - node.crashTime);
+            }
+            if (node.removedAt >= 0) {
+                removed++;
+                removalSum += node.removedAt - node.crashTime;
+                removalMax = Math.max(removalMax, node.removedAt - node.crashTime);
+            }
+        }
+        int live = 0;
+        int smallest = Integer.MAX_VALUE;
+        int largest = 0;
+        int fewestZones = Integer.MAX_VALUE;
+        for (Node node : nodes) {
+            if (node.started && !node.crashed) {
+                live++;
+                smallest = Math.min(smallest, node.membership.size());
+                largest = Math.max(largest, node.membership.size());
+                if (node.zones != null) {
+                    fewestZones = Math.min(fewestZones, node.zones.summaries().size());
+                }
+            }
+        }
+        System.out.println("live nodes : " + live + ", membership list size min " + smallest + " max " + largest);
+        if (zoneCount > 0) {
+            System.out.println("zones : " + zoneCount + ", zone summaries min " + fewestZones);
+        }
+        if (crashes > 0) {
+            System.out.println("crashes detected : " + detected + " of " + crashes
+                    + ", first detection mean " + (detected == 0 ? 0 : detectionSum / detected)
+                    + " ms max " + detectionMax + " ms");
+            System.out.println("crashes removed everywhere : " + removed + " of " + crashes
+                    + ", mean " + (removed == 0 ? 0 : removalSum / removed) + " ms max " + removalMax + " ms");
+        }
+        System.out.println("failure detections : " + failureDetections + ", false positives : " + falsePositives
+                + " (" + (failureDetections == 0 ? 0 : 100.0 * falsePositives / failureDetections) + " %), "
+                + falsePositivesInPartition + " across the partition");
+        System.out.println("suspicions : " + suspicions + ", refutations : " + refutations);
+        System.out.println("messages per node per second : " + messages / nodeCount / seconds);
+        System.out.println("bytes per node per second : " + bytes / nodeCount / seconds);
+        System.out.println("===============================");
+    }
+
+    public static void main(String[] args) {
+        Properties options = new Properties();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                System.err.println("invalid option : " + arg + ", use option=value");
+                System.exit(1);
+            }
+            options.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        new Simulator(options).run();
+    }
+}
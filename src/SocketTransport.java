@@ -0,0 +1,41 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**transport over a blocking DatagramSocket, used by the protocol threads
+ * one transport is used by one thread only, the packet is reused for every send
+ */
+public class SocketTransport implements Transport {
+    private final DatagramSocket socket;
+    private final DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+    //copy of messages that are not backed by an array
+    private byte[] copy = new byte[0];
+
+    /**
+     * constructor
+     * @param socket socket to send on
+     */
+    SocketTransport(DatagramSocket socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public void send(ByteBuffer message, InetSocketAddress target) throws IOException {
+        if (message.hasArray()) {
+            packet.setData(message.array(), message.arrayOffset() + message.position(), message.remaining());
+        } else {
+            if (copy.length < message.remaining()) {
+                copy = new byte[message.remaining()];
+            }
+            int position = message.position();
+            int length = message.remaining();
+            message.get(copy, 0, length);
+            message.position(position);
+            packet.setData(copy, 0, length);
+        }
+        packet.setSocketAddress(target);
+        socket.send(packet);
+    }
+}
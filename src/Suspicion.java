@@ -0,0 +1,207 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**suspicion of members and refutation of suspicions of this node, shared by all failure detectors
+ * a member the failure detector gives up on is not removed at once: it becomes suspect, the suspicion
+ * is gossiped with the member's incarnation, and every node that holds it removes the member when its
+ * suspicion timeout expires. only the node that detected it gossips the removal, with the same
+ * incarnation, so a refutation that is still spreading races one removal, not one per node.
+ * the timeout is suspicionTimeout (configuration file) or, in larger groups, suspicionMultiplier
+ * times log10(N + 1) dissemination periods, the time a gossip needs to reach the group.
+ * a suspected or removed node that is alive hears of it and refutes: it raises its own incarnation
+ * above the suspected one, sends an ADD with it to the node it heard it from and to gossipFanout
+ * random members at once, and queues it to be piggybacked. a suspicion or removal with an incarnation
+ * it refuted already is answered with the current incarnation, to the node it came from.
+ * the highest incarnation wins everywhere:
+ * SUSPECT : applies if the incarnation is at least the known one
+ * REMOVE  : applies if the incarnation is at least the known one, the tombstone keeps it
+ * ADD     : a member with a lower incarnation is alive again, a removed node comes back only above
+ *           its tombstone incarnation
+ * heartbeats and acks from a suspect clear the suspicion locally, the node still has to refute for
+ * the others. updates that lose are stale, they are neither applied nor relayed, so a slow node
+ * causes one suspicion and one refutation instead of a removal and a rejoin racing through the group.
+ */
+public class Suspicion {
+    //time a member stays suspect before it is removed, at least
+    private final long timeout;
+    //dissemination periods per log10(N + 1) a member stays suspect
+    private final int multiplier;
+    //interval between two dissemination rounds, the heartbeat interval or the SWIM period
+    private final long period;
+
+    //suspect member -> its suspicion expiry
+    private final Map<NodeId, TimerWheel.Timeout> expiries = new HashMap<>();
+    //read without the lock, so heartbeats only take the lock while there are suspects
+    private volatile int suspectCount;
+
+    /**
+     * constructor
+     * @param timeout time a member stays suspect before it is removed, at least
+     * @param multiplier dissemination periods per log10(N + 1) a member stays suspect
+     * @param period interval between two dissemination rounds
+     */
+    Suspicion(long timeout, int multiplier, long period) {
+        this.timeout = timeout;
+        this.multiplier = multiplier;
+        this.period = period;
+    }
+
+    /**
+     * @param size num of members
+     * @return time a member stays suspect in a group of this size
+     */
+    long timeout(int size) {
+        int log = 1;
+        for (long power = 10; power < (long) size + 1; power *= 10) {
+            log++;
+        }
+        return Math.max(timeout, multiplier * log * period);
+    }
+
+    /**
+     * the failure detector of this node gave up on a member, suspect it and gossip the suspicion.
+     * the member is told too, it may only have lost some messages and can refute at once
+     * @param ID node ID
+     * @param transport transport the member is told with
+     */
+    synchronized void suspect(NodeId ID, Transport transport) {
+        int slot = Daemon.membership.slotOf(ID);
+        if (slot < 0) {
+            return;
+        }
+        long counter = Daemon.membership.counter(slot);
+        long incarnation = Daemon.membership.incarnation(slot);
+        if (!Daemon.membership.suspect(ID, incarnation)) {
+            return;
+        }
+        Metrics.suspicions.increment();
+        Daemon.writeLog("SUSPECT", ID);
+        schedule(ID, counter, incarnation, true);
+        Daemon.seenUpdates.add(ID, Action.SUSPECT, incarnation, Daemon.clock.getAsLong());
+        Daemon.updates.add(ID, Action.SUSPECT, counter, incarnation, Protocol.gossipTTL());
+        Protocol.sendUpdate(ID, Action.SUSPECT, counter, incarnation, ID, transport);
+    }
+
+    /**
+     * a gossiped suspicion arrived, refute it if it is about this node
+     * @param ID node ID
+     * @param counter counter the member is suspected with
+     * @param incarnation incarnation the member is suspected with
+     * @return whether the suspicion was applied, false if it is stale or about this node
+     */
+    synchronized boolean onSuspect(NodeId ID, long counter, long incarnation) {
+        if (ID.equals(Daemon.ID)) {
+            //refuted before it gets here, see ListeningThread
+            return false;
+        }
+        if (!Daemon.membership.suspect(ID, incarnation)) {
+            return false;
+        }
+        Daemon.writeLog("GOSSIP SUSPECT", ID);
+        schedule(ID, counter, incarnation, false);
+        return true;
+    }
+
+    /**
+     * a message from the node itself arrived, it is not suspect to this node anymore
+     * @param ID node ID
+     */
+    void alive(NodeId ID) {
+        if (suspectCount == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (Daemon.membership.clearSuspect(ID)) {
+                cancel(ID);
+                Daemon.writeLog("SUSPECT CLEARED", ID);
+            }
+        }
+    }
+
+    /**
+     * the member refuted its suspicion or was removed, stop its suspicion timeout
+     * @param ID node ID
+     */
+    synchronized void cancel(NodeId ID) {
+        TimerWheel.Timeout expiry = expiries.remove(ID);
+        if (expiry != null) {
+            expiry.cancel();
+            suspectCount = expiries.size();
+        }
+    }
+
+    /**
+     * this node is suspected or was removed with the incarnation, raise its own incarnation above it
+     * and gossip that it is alive, to the teller and gossipFanout random members at once.
+     * a suspicion with a lower incarnation was refuted already, the teller is sent the current one
+     * @param incarnation incarnation this node was suspected or removed with
+     * @param teller node the suspicion or removal came from, null if unknown
+     * @param transport transport the refutation is sent with, null to only piggyback it
+     */
+    synchronized void refute(long incarnation, NodeId teller, Transport transport) {
+        int slot = Daemon.membership.slotOf(Daemon.ID);
+        if (slot < 0) {
+            return;
+        }
+        long counter = Daemon.membership.counter(slot);
+        long current = Daemon.membership.incarnation(slot);
+        boolean tell = teller != null && transport != null && !teller.equals(Daemon.ID);
+        if (incarnation < current) {
+            if (tell) {
+                Protocol.sendGossip(Daemon.ID, Action.ADD, counter, current, Protocol.gossipTTL(), teller, transport);
+            }
+            return;
+        }
+        long raised = incarnation + 1;
+        Daemon.membership.raiseIncarnation(Daemon.ID, raised);
+        Metrics.refutations.increment();
+        Daemon.writeLog("REFUTE", Daemon.ID);
+        Daemon.seenUpdates.add(Daemon.ID, Action.ADD, raised, Daemon.clock.getAsLong());
+        Daemon.updates.add(Daemon.ID, Action.ADD, counter, raised, Protocol.gossipTTL());
+        if (tell) {
+            Protocol.sendGossip(Daemon.ID, Action.ADD, counter, raised, Protocol.gossipTTL(), teller, transport);
+        }
+        if (transport != null) {
+            Protocol.sendGossip(Daemon.ID, Action.ADD, counter, raised, Protocol.gossipTTL(), Protocol.gossipFanout(),
+                    transport);
+        }
+    }
+
+    private void schedule(NodeId ID, long counter, long incarnation, boolean detected) {
+        TimerWheel.Timeout expiry = Daemon.timers.schedule(() -> expire(ID, counter, incarnation, detected),
+                timeout(Daemon.membership.size()));
+        TimerWheel.Timeout previous = expiries.put(ID, expiry);
+        if (previous != null) {
+            previous.cancel();
+        }
+        suspectCount = expiries.size();
+    }
+
+    /**
+     * the suspicion of a member timed out, remove it. every node removes it with the counter and
+     * incarnation it was suspected with, only the node that detected it counts a failure and gossips
+     * the removal, the others wait for it or for their own timeout
+     */
+    private synchronized void expire(NodeId ID, long counter, long incarnation, boolean detected) {
+        if (expiries.remove(ID) == null) {
+            return;
+        }
+        suspectCount = expiries.size();
+        int slot = Daemon.membership.slotOf(ID);
+        long lastSeen = slot >= 0 ? Daemon.membership.lastSeen(slot) : 0;
+        if (slot >= 0 && Daemon.membership.status(slot) == MembershipStore.SUSPECT
+                && Daemon.membership.remove(ID, counter, incarnation)) {
+            long now = Daemon.clock.getAsLong();
+            if (!detected) {
+                Daemon.writeLog("SUSPECT REMOVE", ID);
+                return;
+            }
+            Metrics.failures.increment();
+            Metrics.failureDetectionTime.record(now - lastSeen);
+            Daemon.writeLog("FAILURE", ID);
+            Daemon.seenUpdates.add(ID, Action.REMOVE, incarnation, now);
+            Daemon.updates.add(ID, Action.REMOVE, counter, incarnation, Protocol.gossipTTL());
+            Daemon.writeLog("REMOVE", ID);
+        }
+    }
+}
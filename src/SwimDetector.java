@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**SWIM style failure detector, selected with failureDetector=swim in the configuration file
+ * every protocol period one member is pinged, members are taken in a shuffled round-robin order
+ * so every member is probed at least once every N periods. without an ack after the ping timeout
+ * the member is pinged indirectly through indirectProbes random helpers (ping-req). without any ack
+ * by the end of the period the member becomes suspect, see Suspicion, and only fails if it doesn't
+ * refute within the suspicion timeout. a node sends one ping and at most indirectProbes ping-reqs
+ * per period however big the group is.
+ * probe messages, the entry ID is the sender and the counter is the probe sequence number:
+ * PING     : acked to the sender, the subject is the node the ack is finally meant for
+ * PING_REQ : the subject is the node to ping, the helper pings it on behalf of the sender
+ * ACK      : the entry ID is the node that was pinged, a helper relays it when it is not the subject
+ */
+public class SwimDetector {
+    //interval between two probes
+    private final long period;
+    //time to wait for a direct ack before asking helpers
+    private final long pingTimeout;
+    //num of helpers asked to ping a member that didn't ack
+    private final int indirectProbes;
+    //transport probes are sent with, set by start
+    private Transport transport;
+
+    //members in the order they are probed, reshuffled after every round
+    private NodeId[] probeOrder = new NodeId[0];
+    private int probeIndex;
+
+    //probe of the current period
+    private NodeId target;
+    private long sequence;
+    private boolean acked;
+    private TimerWheel.Timeout ackTimeout;
+
+    /**
+     * constructor
+     * @param period interval between two probes
+     * @param pingTimeout time to wait for a direct ack before asking helpers
+     * @param indirectProbes num of helpers asked to ping a member that didn't ack
+     */
+    SwimDetector(long period, long pingTimeout, int indirectProbes) {
+        this.period = period;
+        this.pingTimeout = pingTimeout;
+        this.indirectProbes = indirectProbes;
+    }
+
+    /**
+     * start probing, one probe every period on Daemon.timers
+     * @param transport transport used to send probes
+     */
+    void start(Transport transport) {
+        this.transport = transport;
+        Daemon.timers.scheduleAtFixedRate(this::probe, period, period);
+    }
+
+    /**
+     * start of a period, suspect the member that never acked and ping the next member
+     */
+    private synchronized void probe() {
+        if (target != null && !acked) {
+            Daemon.suspicion.suspect(target, transport);
+        }
+
+        target = nextTarget();
+        if (target == null) {
+            return;
+        }
+        long probeSequence = ++sequence;
+        acked = false;
+        Protocol.sendProbe(MessageCodec.TYPE_PING, Daemon.ID, probeSequence, Daemon.ID, target, transport);
+        ackTimeout = Daemon.timers.schedule(() -> pingTimedOut(probeSequence), pingTimeout);
+    }
+
+    /**
+     * no direct ack within the ping timeout, ask helpers
+     */
+    private synchronized void pingTimedOut(long probeSequence) {
+        if (probeSequence == sequence && !acked) {
+            sendPingRequests();
+        }
+    }
+
+    /**
+     * an ack meant for this node arrived, directly or through a helper
+     * @param ID node that was pinged
+     * @param sequence probe sequence number
+     */
+    synchronized void onAck(NodeId ID, long sequence) {
+        if (ID.equals(target) && sequence == this.sequence && !acked) {
+            acked = true;
+            ackTimeout.cancel();
+        }
+        Daemon.suspicion.alive(ID);
+    }
+
+    /**
+     * @return next member to probe, null if this node is alone
+     */
+    private NodeId nextTarget() {
+        for (int round = 0; round < 2; round++) {
+            while (probeIndex < probeOrder.length) {
+                NodeId candidate = probeOrder[probeIndex++];
+                if (Daemon.membership.slotOf(candidate) >= 0) {
+                    return candidate;
+                }
+            }
+            //new round, members that joined during the last one are included now
+            NodeId[] IDs = Daemon.membership.snapshot().IDs;
+            NodeId[] order = new NodeId[IDs.length];
+            int size = 0;
+            for (NodeId ID : IDs) {
+                if (!ID.equals(Daemon.ID)) {
+                    order[size++] = ID;
+                }
+            }
+            for (int i = size - 1; i > 0; i--) {
+                int j = Daemon.random.nextInt(i + 1);
+                NodeId swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            probeOrder = size == order.length ? order : Arrays.copyOf(order, size);
+            probeIndex = 0;
+        }
+        return null;
+    }
+
+    /**
+     * ask up to indirectProbes random members other than this node and the target to ping the target
+     */
+    private void sendPingRequests() {
+        NodeId[] IDs = Daemon.membership.snapshot().IDs;
+        NodeId[] helpers = new NodeId[indirectProbes];
+        int chosen = 0;
+        for (int attempt = 0; attempt < 4 * indirectProbes && chosen < indirectProbes && IDs.length > 0; attempt++) {
+            NodeId candidate = IDs[Daemon.random.nextInt(IDs.length)];
+            if (candidate.equals(Daemon.ID) || candidate.equals(target)) {
+                continue;
+            }
+            boolean duplicate = false;
+            for (int i = 0; i < chosen; i++) {
+                duplicate |= helpers[i].equals(candidate);
+            }
+            if (!duplicate) {
+                helpers[chosen++] = candidate;
+                Protocol.sendProbe(MessageCodec.TYPE_PING_REQ, Daemon.ID, sequence, target, candidate, transport);
+            }
+        }
+    }
+}
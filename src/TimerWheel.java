@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**hashed timer wheel, owned by the daemon
+ * holds the periodic tasks (heartbeat, monitor, SWIM probes) and per-member deadlines
+ * (ack timeouts, suspicion expiry). schedule and cancel are O(1): a timeout is linked into the
+ * bucket of its expiry tick, and buckets are doubly linked lists.
+ * the wheel is driven either by its own thread (run) or by the event loop (advance).
+ * ticks are counted from the start time, never from when the last tick ran, and periodic tasks
+ * are rescheduled from their previous deadline, so neither drifts by the time the tasks take.
+ * tasks run outside the wheel lock, they may schedule and cancel timeouts themselves.
+ */
+public class TimerWheel implements Runnable {
+    /**a scheduled task, can be cancelled
+     */
+    final class Timeout {
+        private final Runnable task;
+        //interval of a periodic task, 0 for a one-shot task
+        private final long period;
+        private long deadline;
+        private long expiryTick;
+        private boolean linked;
+        private boolean cancelled;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * cancel the task, it doesn't run anymore. does nothing if it already ran
+         */
+        void cancel() {
+            synchronized (TimerWheel.this) {
+                cancelled = true;
+                if (linked) {
+                    unlink(this);
+                }
+            }
+        }
+    }
+
+    private final long tickDuration;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long startTime;
+    //last tick that was processed
+    private long tick;
+
+    //timeouts expired in the current advance, only used by the driving thread
+    private final List<Timeout> expired = new ArrayList<>();
+
+    /**
+     * constructor
+     * @param tickDuration duration of a tick in ms, the precision of the deadlines
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    TimerWheel(long tickDuration, int wheelSize) {
+        this.tickDuration = tickDuration;
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.startTime = Daemon.clock.getAsLong();
+    }
+
+    /**
+     * run a task once after a delay
+     * @param task the task
+     * @param delay delay in ms
+     * @return handle to cancel the task
+     */
+    synchronized Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task, Daemon.clock.getAsLong() + delay, 0);
+        link(timeout);
+        return timeout;
+    }
+
+    /**
+     * run a task at a fixed rate, deadlines are counted from the previous deadline.
+     * if the task falls behind by more than a period it runs once and continues a period later,
+     * missed runs are not made up in a burst
+     * @param task the task
+     * @param initialDelay delay of the first run in ms
+     * @param period interval between two runs in ms
+     * @return handle to cancel the task
+     */
+    synchronized Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period) {
+        Timeout timeout = new Timeout(task, Daemon.clock.getAsLong() + initialDelay, period);
+        link(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return time the next tick is due
+     */
+    synchronized long nextTickTime() {
+        return startTime + (tick + 1) * tickDuration;
+    }
+
+    /**
+     * process the ticks that are due and run the expired tasks on the calling thread.
+     * only one thread drives the wheel
+     * @param now current time
+     */
+    void advance(long now) {
+        synchronized (this) {
+            while (startTime + (tick + 1) * tickDuration <= now) {
+                tick++;
+                Timeout timeout = buckets[(int) (tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.expiryTick <= tick) {
+                        unlink(timeout);
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+            }
+        }
+
+        for (Timeout timeout : expired) {
+            synchronized (this) {
+                if (timeout.cancelled) {
+                    //cancelled after it expired, before it ran
+                    continue;
+                }
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            if (timeout.period > 0) {
+                synchronized (this) {
+                    if (!timeout.cancelled) {
+                        timeout.deadline += timeout.period;
+                        if (timeout.deadline <= now) {
+                            timeout.deadline = now + timeout.period;
+                        }
+                        link(timeout);
+                    }
+                }
+            }
+        }
+        expired.clear();
+    }
+
+    /**
+     * drive the wheel on the current thread, sleeping until each tick is due
+     */
+    @Override
+    public void run() {
+        while (true) {
+            long delay = nextTickTime() - Daemon.clock.getAsLong();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
+            advance(Daemon.clock.getAsLong());
+        }
+    }
+
+    private void link(Timeout timeout) {
+        //a deadline on a tick already processed expires on the next tick
+        long deadlineTick = (timeout.deadline - startTime + tickDuration - 1) / tickDuration;
+        timeout.expiryTick = Math.max(deadlineTick, tick + 1);
+        int bucket = (int) (timeout.expiryTick & mask);
+        timeout.previous = null;
+        timeout.next = buckets[bucket];
+        if (buckets[bucket] != null) {
+            buckets[bucket].previous = timeout;
+        }
+        buckets[bucket] = timeout;
+        timeout.linked = true;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[(int) (timeout.expiryTick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.linked = false;
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**offline tool, merges the trace files of the nodes into propagation percentiles by action
+ * an update is identified by its action, the node it is about and its incarnation. a REMOVE is started
+ * by every node whose suspicion expires, those traces are one update that starts at the earliest origin.
+ * for every action it prints:
+ * updates     : num of updates and mean num of nodes each reached, of the nodes found in the files
+ * latency     : receive time minus the origin time of the trace it arrived with, every first arrival
+ * propagation : last arrival minus the earliest origin time, per update, the time to reach every node
+ * hops        : hops of every first arrival
+ * usage : java TraceMerge <trace file> ...
+ */
+public class TraceMerge {
+    /**one traced update, merged from the records of all the files
+     */
+    private static final class Update {
+        long start = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        final Set<NodeId> reached = new HashSet<>();
+    }
+
+    /**identity of an update
+     */
+    private static final class Key {
+        final Action action;
+        final NodeId ID;
+        final long incarnation;
+
+        Key(Action action, NodeId ID, long incarnation) {
+            this.action = action;
+            this.ID = ID;
+            this.incarnation = incarnation;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return action == key.action && ID.equals(key.ID) && incarnation == key.incarnation;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(action, ID, incarnation);
+        }
+    }
+
+    private final Map<Key, Update> updates = new HashMap<>();
+    private final Set<NodeId> nodes = new HashSet<>();
+    //latencies and hops of the first arrivals, by action
+    private final Map<Action, List<Long>> latencies = new HashMap<>();
+    private final Map<Action, List<Long>> hops = new HashMap<>();
+
+    /**
+     * read the records of a trace file
+     * @param path path of the trace file
+     * @throws IOException if the file could not be read
+     */
+    private void read(String path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+        if (buffer.remaining() < 5 || buffer.getInt() != Tracing.MAGIC || buffer.get() != Tracing.VERSION) {
+            System.err.println("not a trace file : " + path);
+            return;
+        }
+        MessageCodec codec = new MessageCodec();
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            try {
+                Action action = Action.fromCode(buffer.get());
+                int hopCount = buffer.get() & 0xff;
+                long incarnation = MessageCodec.getVarLong(buffer);
+                long originTime = MessageCodec.getVarLong(buffer);
+                long receiveTime = MessageCodec.getVarLong(buffer);
+                NodeId ID = codec.getID(buffer);
+                codec.getID(buffer);
+                NodeId receiver = codec.getID(buffer);
+                if (action == null) {
+                    throw new IllegalArgumentException();
+                }
+
+                nodes.add(receiver);
+                Update update = updates.computeIfAbsent(new Key(action, ID, incarnation), k -> new Update());
+                update.start = Math.min(update.start, originTime);
+                update.last = Math.max(update.last, receiveTime);
+                update.reached.add(receiver);
+                if (hopCount > 0) {
+                    latencies.computeIfAbsent(action, k -> new ArrayList<>()).add(receiveTime - originTime);
+                    hops.computeIfAbsent(action, k -> new ArrayList<>()).add((long) hopCount);
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                System.err.println("trace file " + path + " is cut at byte " + start);
+                break;
+            }
+        }
+    }
+
+    private void print() {
+        System.out.println("nodes : " + nodes.size() + ", updates : " + updates.size());
+        for (Action action : Action.values()) {
+            List<Long> propagation = new ArrayList<>();
+            long reached = 0;
+            for (Map.Entry<Key, Update> entry : updates.entrySet()) {
+                if (entry.getKey().action == action) {
+                    Update update = entry.getValue();
+                    propagation.add(update.last - update.start);
+                    reached += update.reached.size();
+                }
+            }
+            if (propagation.isEmpty()) {
+                continue;
+            }
+            System.out.println("===============================");
+            System.out.println(action + " updates : " + propagation.size() + ", reached " + reached / propagation.size()
+                    + " of " + nodes.size() + " nodes on average");
+            System.out.println("latency ms     " + percentiles(latencies.get(action)));
+            System.out.println("propagation ms " + percentiles(propagation));
+            System.out.println("hops           " + percentiles(hops.get(action)));
+        }
+        System.out.println("===============================");
+    }
+
+    /**
+     * @return p50, p90, p99 and max of the values, nearest rank
+     */
+    private static String percentiles(List<Long> values) {
+        if (values == null || values.isEmpty()) {
+            return "none";
+        }
+        long[] sorted = new long[values.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = values.get(i);
+        }
+        Arrays.sort(sorted);
+        return "p50=" + rank(sorted, 0.5) + " p90=" + rank(sorted, 0.9) + " p99=" + rank(sorted, 0.99)
+                + " max=" + sorted[sorted.length - 1];
+    }
+
+    private static long rank(long[] sorted, double percentile) {
+        return sorted[Math.max((int) Math.ceil(percentile * sorted.length) - 1, 0)];
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("usage : java TraceMerge <trace file> ...");
+            System.exit(1);
+        }
+        TraceMerge merge = new TraceMerge();
+        for (String path : args) {
+            try {
+                merge.read(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        merge.print();
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**dissemination tracing, how long gossiped updates take to reach the group and over how many hops
+ * with traceFile set (configuration file) every update a node starts, the ADD of a joining node, a
+ * SUSPECT, the REMOVE of a failure, a LEAVE or a refutation, carries a trace on the wire: the origin
+ * node, the origin time and the hop count, see MessageCodec. relays keep the origin and add one hop,
+ * see UpdateBuffer, nodes without tracing relay the trace as it is.
+ * the first time a node receives a traced update it records its clock minus the origin time and the
+ * hops in the histograms of Metrics by action, and appends a record to the trace file. the node that
+ * starts an update records it with 0 hops, so the file tells which nodes an update reached.
+ * latencies between nodes are only as good as their clock sync, the simulator has one clock.
+ * records are appended to a buffer and a background writer writes it, as soon as it is full and every
+ * FLUSH_INTERVAL, so neither the receiving threads nor Daemon.timers wait for the disk. records are
+ * dropped, and counted, while MAX_BUFFERS full buffers wait for the writer.
+ * TraceMerge reads the trace files of all the nodes and prints propagation percentiles by action.
+ * file layout:
+ * int     : MAGIC
+ * byte    : version
+ * records : one per update started or received
+ * record layout:
+ * byte    : action, ordinal of Action
+ * byte    : hops, 0 at the origin
+ * varint  : incarnation the update carries
+ * varint  : origin time, epoch ms
+ * varint  : receive time, epoch ms
+ * ID      : node the update is about
+ * ID      : origin node
+ * ID      : receiving node
+ */
+public class Tracing {
+    static final int MAGIC = 0x54524143;
+    static final byte VERSION = 1;
+    static final int MAX_RECORD_SIZE = 2 + 3 * 10 + 3 * MessageCodec.MAX_ID_SIZE;
+    //interval between two writes of the buffered records
+    static final long FLUSH_INTERVAL = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //num of buffers, full ones waiting for the writer included, records are dropped when all are full
+    private static final int MAX_BUFFERS = 64;
+
+    private final FileChannel channel;
+    //the fields below are guarded by this
+    //buffer records are appended to
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    //full buffers waiting for the writer, oldest first, and empty ones to reuse
+    private final ArrayDeque<ByteBuffer> full = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private int buffers = 1;
+    //records dropped because all buffers were full
+    private long dropped;
+    private boolean closed;
+
+    private final Thread writer;
+
+    /**
+     * constructor, creates or truncates the trace file and starts the background writer
+     * @param path path of the trace file
+     * @throws IOException if the file could not be created
+     */
+    Tracing(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC).put(VERSION);
+        writer = new Thread(this::drain, "TracingWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * this node starts a traced update
+     * @param ID node the update is about
+     * @param action action
+     * @param incarnation incarnation the update carries
+     * @param now local time millis, the origin time
+     */
+    void started(NodeId ID, Action action, long incarnation, long now) {
+        record(ID, action, incarnation, Daemon.ID, now, 0, now);
+    }
+
+    /**
+     * a traced update arrived for the first time
+     * @param codec codec holding the decoded update and its trace
+     */
+    void received(MessageCodec codec) {
+        long now = Daemon.clock.getAsLong();
+        int action = codec.action.ordinal();
+        if (Metrics.traceLatency[action] != null) {
+            Metrics.traceLatency[action].record(Math.max(now - codec.originTime, 0));
+            Metrics.traceHops[action].record(codec.hops);
+        }
+        record(codec.ID, codec.action, codec.incarnation, codec.origin, codec.originTime, codec.hops, now);
+    }
+
+    /**
+     * append a record, never touches the disk. a full buffer is handed to the writer
+     */
+    private synchronized void record(NodeId ID, Action action, long incarnation, NodeId origin, long originTime,
+                                     int hops, long now) {
+        if (closed) {
+            return;
+        }
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            ByteBuffer next = free.poll();
+            if (next == null) {
+                if (buffers == MAX_BUFFERS) {
+                    dropped++;
+                    return;
+                }
+                next = ByteBuffer.allocate(BUFFER_SIZE);
+                buffers++;
+            }
+            full.add(buffer);
+            buffer = next;
+            notify();
+        }
+        buffer.put((byte) action.ordinal());
+        buffer.put((byte) Math.min(hops, 255));
+        MessageCodec.putVarLong(buffer, incarnation);
+        MessageCodec.putVarLong(buffer, originTime);
+        MessageCodec.putVarLong(buffer, now);
+        MessageCodec.putID(buffer, ID);
+        MessageCodec.putID(buffer, origin);
+        MessageCodec.putID(buffer, Daemon.ID);
+    }
+
+    /**
+     * writer thread, writes the full buffers as they come and the current one every FLUSH_INTERVAL
+     */
+    private void drain() {
+        boolean done = false;
+        while (!done) {
+            ByteBuffer next;
+            synchronized (this) {
+                if (full.isEmpty() && !closed) {
+                    try {
+                        wait(FLUSH_INTERVAL);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+                next = full.poll();
+                if (next == null && buffer.position() > 0) {
+                    //nothing full, hand over what the current buffer holds
+                    ByteBuffer replacement = free.poll();
+                    if (replacement == null && buffers < MAX_BUFFERS) {
+                        replacement = ByteBuffer.allocate(BUFFER_SIZE);
+                        buffers++;
+                    }
+                    if (replacement != null) {
+                        next = buffer;
+                        buffer = replacement;
+                    }
+                }
+                done = closed && next == null;
+            }
+            if (next == null) {
+                continue;
+            }
+            try {
+                next.flip();
+                while (next.hasRemaining()) {
+                    channel.write(next);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            next.clear();
+            synchronized (this) {
+                free.add(next);
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * write the buffered records and close the trace file
+     */
+    void close() {
+        long droppedRecords;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            droppedRecords = dropped;
+            notify();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        if (droppedRecords > 0) {
+            System.err.println("trace dropped " + droppedRecords + " records, the writer fell behind");
+        }
+    }
+}
@@ -0,0 +1,20 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**sends datagrams for the protocol
+ * the protocol writes through a transport instead of a socket, so the blocking threads,
+ * the NIO event loop and the simulator share the same sending code.
+ * on the receiving side every transport hands datagrams to ListeningThread.handleMessage,
+ * and join requests to IntroducerThread.handleJoinRequest
+ */
+public interface Transport {
+    /**
+     * send the bytes between position and limit of the message, the position is left unchanged
+     * so the same message can be sent to many targets
+     * @param message message to send
+     * @param target address of the receiver
+     * @throws IOException if the datagram could not be sent
+     */
+    void send(ByteBuffer message, InetSocketAddress target) throws IOException;
+}
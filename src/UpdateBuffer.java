@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**outbound buffer of membership updates waiting to be disseminated
+ * the heartbeat thread piggybacks as many pending updates as fit on every heartbeat,
+ * so a burst of updates costs a few datagrams per heartbeat interval instead of a few per update.
+ * a newer update about a node replaces the pending one. the number of rounds an update is
+ * piggybacked on is set by Daemon.dissemination.
+ * new updates go to the front of the queue and sent ones to the back, so when more updates are
+ * pending than fit on a heartbeat the freshest go first and a backlog of old ones can't hold back
+ * a new failure.
+ * an update keeps the trace it arrived with, or gets a new one if this node starts it, see Tracing.
+ */
+public class UpdateBuffer {
+    private static class Update {
+        NodeId ID;
+        Action action;
+        long counter;
+        long incarnation;
+        int TTL;
+        //trace, origin is null if the update has none
+        NodeId origin;
+        long originTime;
+        int hops;
+        int transmissionsLeft;
+        //queue links
+        Update previous;
+        Update next;
+    }
+
+    //pending updates by node ID
+    private final HashMap<NodeId, Update> pending = new HashMap<>();
+    //queue of the pending updates, in the order they will be sent
+    private Update head;
+    private Update tail;
+    //updates sent in the current round that still have transmissions left
+    private final List<Update> sent = new ArrayList<>();
+
+    /**
+     * queue an update this node starts, traced if Daemon.tracing is set
+     * @param ID node ID
+     * @param action action
+     * @param counter heartbeat counter
+     * @param incarnation incarnation of the node
+     * @param TTL relay number the receivers see
+     */
+    void add(NodeId ID, Action action, long counter, long incarnation, int TTL) {
+        Tracing tracing = Daemon.tracing;
+        if (tracing == null) {
+            add(ID, action, counter, incarnation, TTL, null, 0, 0);
+            return;
+        }
+        long now = Daemon.clock.getAsLong();
+        tracing.started(ID, action, incarnation, now);
+        add(ID, action, counter, incarnation, TTL, Daemon.ID, now, 1);
+    }
+
+    /**
+     * queue an update for dissemination
+     * @param ID node ID
+     * @param action action
+     * @param counter heartbeat counter
+     * @param incarnation incarnation of the node
+     * @param TTL relay number the receivers see
+     * @param origin node that started the update, null for an update without trace
+     * @param originTime time the update started, epoch ms
+     * @param hops transmissions from the origin up to the receivers
+     */
+    synchronized void add(NodeId ID, Action action, long counter, long incarnation, int TTL, NodeId origin,
+                          long originTime, int hops) {
+        Update update = pending.get(ID);
+        if (update == null) {
+            update = new Update();
+            update.ID = ID;
+            pending.put(ID, update);
+        } else if (update.action == action && update.incarnation == incarnation) {
+            //same update arrived over another path, keep the pending one
+            update.counter = Math.max(update.counter, counter);
+            update.TTL = Math.max(update.TTL, TTL);
+            return;
+        } else {
+            unlink(update);
+        }
+        update.action = action;
+        update.counter = counter;
+        update.incarnation = incarnation;
+        update.TTL = TTL;
+        update.origin = origin;
+        update.originTime = originTime;
+        update.hops = hops;
+        update.transmissionsLeft = Daemon.dissemination.retransmits(Daemon.membership.size());
+        linkFirst(update);
+    }
+
+    /**
+     * @return whether no update is waiting to be sent
+     */
+    synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * piggyback as many pending updates as fit on the message the codec is encoding.
+     * every update that is added uses up one transmission and moves to the back of the queue,
+     * so updates that did not fit go first next round.
+     * @param codec codec with a message started by begin
+     * @return number of updates added
+     */
+    synchronized int drainInto(MessageCodec codec) {
+        int added = 0;
+        while (head != null) {
+            Update update = head;
+            if (!codec.putUpdate(update.ID, update.action, update.counter, update.incarnation, update.TTL,
+                    update.origin, update.originTime, update.hops)) {
+                break;
+            }
+            added++;
+            unlink(update);
+            if (--update.transmissionsLeft > 0) {
+                sent.add(update);
+            } else {
+                pending.remove(update.ID);
+            }
+        }
+        for (Update update : sent) {
+            linkLast(update);
+        }
+        sent.clear();
+        return added;
+    }
+
+    private void linkFirst(Update update) {
+        update.previous = null;
+        update.next = head;
+        if (head != null) {
+            head.previous = update;
+        } else {
+            tail = update;
+        }
+        head = update;
+    }
+
+    private void linkLast(Update update) {
+        update.previous = tail;
+        update.next = null;
+        if (tail != null) {
+            tail.next = update;
+        } else {
+            head = update;
+        }
+        tail = update;
+    }
+
+    private void unlink(Update update) {
+        if (update.previous != null) {
+            update.previous.next = update.next;
+        } else {
+            head = update.next;
+        }
+        if (update.next != null) {
+            update.next.previous = update.previous;
+        } else {
+            tail = update.previous;
+        }
+        update.previous = null;
+        update.next = null;
+    }
+}
@@ -0,0 +1,212 @@
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**two-tier membership, zone (configuration file) of every node, e.g. its rack
+ * the membership list of a node holds the members of its zone only, so the heartbeat ring, the failure
+ * detectors, gossip and anti-entropy all stay within the zone and the state and traffic of a node grow
+ * with the size of its zone, not of the group.
+ * the other zones are known by a summary each: a version, the num of members and the delegates, the
+ * first zoneDelegates members of the zone in ring order, so every member agrees on them without an
+ * election. every node summarizes its own zone from its membership list and stamps it with a higher
+ * version every zoneInterval ms, a zone whose version doesn't advance for zoneTimeout ms is dropped.
+ * every zoneInterval ms every node sends its summaries to one node: a delegate to a delegate of a
+ * random other zone, the introducers while it knows no other zone, any other member to a random
+ * member of its zone. the receiver keeps the newer summaries and sends back the ones it has newer or
+ * didn't get, so only delegates talk across zones, once per interval each, with O(num of zones) bytes.
+ * a join request from another zone is redirected to the delegates of that zone, see IntroducerThread.
+ * the first node of an unknown zone is admitted alone and named its delegate until the zone reports.
+ */
+public class Zones {
+    /**summary of a zone, replaced, never modified
+     */
+    static final class Summary {
+        final String zone;
+        //UTF-8 zone label, as sent
+        final byte[] label;
+        final long version;
+        final int members;
+        final NodeId[] delegates;
+        //local time the version last advanced
+        final long heard;
+
+        Summary(String zone, long version, int members, NodeId[] delegates, long heard) {
+            this.zone = zone;
+            this.label = zone.getBytes(StandardCharsets.UTF_8);
+            this.version = version;
+            this.members = members;
+            this.delegates = delegates;
+            this.heard = heard;
+        }
+
+        @Override
+        public String toString() {
+            return zone + " version : " + version + " members : " + members + " delegates : "
+                    + Arrays.toString(delegates);
+        }
+    }
+
+    //zone of this node
+    final String zone;
+    //interval between two exchanges
+    private final long interval;
+    //num of delegates of a zone
+    private final int delegateCount;
+    //time a zone is kept without a newer summary
+    private final long timeout;
+    //packet ports of the introducers, asked while no other zone is known
+    private final List<InetSocketAddress> contacts;
+    //transport exchanges are sent with, set by start
+    private Transport transport;
+
+    //zone -> its latest summary, this zone included
+    private final Map<String, Summary> summaries = new ConcurrentHashMap<>();
+
+    /**
+     * constructor
+     * @param zone zone of this node, at most MessageCodec.MAX_ZONE_SIZE UTF-8 bytes
+     * @param interval interval between two exchanges
+     * @param delegateCount num of delegates of a zone, at most MessageCodec.MAX_DELEGATES
+     * @param timeout time a zone is kept without a newer summary
+     * @param contacts packet ports of the introducers
+     */
+    Zones(String zone, long interval, int delegateCount, long timeout, List<InetSocketAddress> contacts) {
+        if (zone.getBytes(StandardCharsets.UTF_8).length > MessageCodec.MAX_ZONE_SIZE) {
+            throw new IllegalArgumentException("zone label longer than " + MessageCodec.MAX_ZONE_SIZE + " bytes");
+        }
+        this.zone = zone;
+        this.interval = interval;
+        this.delegateCount = Math.max(1, Math.min(delegateCount, MessageCodec.MAX_DELEGATES));
+        this.timeout = timeout;
+        this.contacts = contacts;
+    }
+
+    /**
+     * start exchanging, one exchange every interval on Daemon.timers
+     * @param transport transport used to send the summaries
+     */
+    void start(Transport transport) {
+        this.transport = transport;
+        Daemon.timers.scheduleAtFixedRate(this::exchange, interval, interval);
+    }
+
+    /**
+     * @return the summary of a zone, null if the zone is unknown
+     */
+    Summary summary(String zone) {
+        return summaries.get(zone);
+    }
+
+    /**
+     * @return the summaries of all the known zones, this zone included
+     */
+    List<Summary> summaries() {
+        return new ArrayList<>(summaries.values());
+    }
+
+    /**
+     * @return the delegates of this zone, the first members in ring order
+     */
+    NodeId[] delegates() {
+        NodeId[] IDs = Daemon.membership.snapshot().IDs;
+        return Arrays.copyOf(IDs, Math.min(delegateCount, IDs.length));
+    }
+
+    /**
+     * a join request of an unknown zone was admitted, its node is the delegate until the zone reports
+     * @param zone the zone
+     * @param ID node ID of the first node of the zone
+     */
+    void found(String zone, NodeId ID) {
+        summaries.putIfAbsent(zone, new Summary(zone, 0, 1, new NodeId[]{ID}, Daemon.clock.getAsLong()));
+    }
+
+    /**
+     * summarize this zone, drop the zones that timed out, and send the summaries to one node
+     */
+    private void exchange() {
+        long now = Daemon.clock.getAsLong();
+        NodeId[] delegates = delegates();
+        if (delegates.length == 0) {
+            return;
+        }
+        Summary own = summaries.get(zone);
+        long version = Math.max(now, own == null ? 0 : own.version + 1);
+        summaries.put(zone, new Summary(zone, version, Daemon.membership.size(), delegates, now));
+        summaries.values().removeIf(summary -> !summary.zone.equals(zone) && now - summary.heard > timeout);
+
+        InetSocketAddress target = Arrays.asList(delegates).contains(Daemon.ID) ? remoteDelegate() : localMember();
+        if (target != null) {
+            Protocol.sendZones(Daemon.ID, true, summaries(), target, transport);
+        }
+    }
+
+    /**
+     * @return packet port of a delegate of a random other zone, an introducer if no other zone is known
+     */
+    private InetSocketAddress remoteDelegate() {
+        List<Summary> others = new ArrayList<>(summaries.size());
+        for (Summary summary : summaries.values()) {
+            if (!summary.zone.equals(zone) && summary.delegates.length > 0) {
+                others.add(summary);
+            }
+        }
+        if (!others.isEmpty()) {
+            NodeId[] delegates = others.get(Daemon.random.nextInt(others.size())).delegates;
+            return delegates[Daemon.random.nextInt(delegates.length)].socketAddress();
+        }
+        InetSocketAddress self = Daemon.ID.socketAddress();
+        List<InetSocketAddress> introducers = new ArrayList<>(contacts);
+        introducers.remove(self);
+        return introducers.isEmpty() ? null : introducers.get(Daemon.random.nextInt(introducers.size()));
+    }
+
+    /**
+     * @return packet port of a random member of this zone other than this node, null if it is alone
+     */
+    private InetSocketAddress localMember() {
+        NodeId[] IDs = Daemon.membership.snapshot().IDs;
+        if (IDs.length < 2) {
+            return null;
+        }
+        NodeId target;
+        do {
+            target = IDs[Daemon.random.nextInt(IDs.length)];
+        } while (target.equals(Daemon.ID));
+        return target.socketAddress();
+    }
+
+    /**
+     * summaries arrived, keep the newer ones. if asked to, send back the summaries this node has newer
+     * and the ones the message didn't hold, the sender may have them in another message
+     * @param codec codec holding the decoded zones message
+     * @param buffer buffer holding the summaries
+     * @param transport transport the answer is sent with
+     */
+    void onZones(MessageCodec codec, ByteBuffer buffer, Transport transport) {
+        NodeId sender = codec.ID;
+        boolean reply = codec.counter == 1;
+        long now = Daemon.clock.getAsLong();
+        Map<String, Summary> newer = reply ? new HashMap<>(summaries) : null;
+        while (codec.hasNextUpdate() && codec.nextZone(buffer)) {
+            Summary known = summaries.get(codec.zone);
+            //the summary of this zone is made from the membership list of this node
+            if ((known == null || codec.counter > known.version) && !codec.zone.equals(zone)) {
+                summaries.put(codec.zone, new Summary(codec.zone, codec.counter, codec.zoneMembers,
+                        codec.zoneDelegates, now));
+            }
+            if (reply && (known == null || known.version <= codec.counter)) {
+                newer.remove(codec.zone);
+            }
+        }
+        if (reply && !newer.isEmpty()) {
+            Protocol.sendZones(Daemon.ID, false, new ArrayList<>(newer.values()), sender.socketAddress(), transport);
+        }
+    }
+}
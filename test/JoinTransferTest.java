@@ -0,0 +1,146 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**chunking, validation and reassembly of the membership list sent to a joining node, see JoinTransfer
+ */
+class JoinTransferTest {
+    private static final NodeId INTRODUCER = NodeId.of(1500000000L, 0, 0x0A000001, 10100);
+    private static final NodeId JOINER = NodeId.of(1500009999L, 0, 0x0A00FFFF, 10100);
+
+    private MembershipStore introducer;
+
+    @BeforeEach
+    void setUp() {
+        Daemon.clock = () -> 1000;
+        Daemon.ID = INTRODUCER;
+        Daemon.membership = null;
+        introducer = new MembershipStore(INTRODUCER, 1);
+        introducer.add(INTRODUCER, 1, 0, 0);
+        for (int i = 1; i < 2000; i++) {
+            introducer.add(NodeId.of(1500000000L + i, i, 0x0A000000 + i, 10100), i, i % 3, 0);
+        }
+    }
+
+    private static DatagramPacket packet(byte[] data) {
+        return new DatagramPacket(data, data.length);
+    }
+
+    private static byte[] chunk(int transferID, int index, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.put(JoinTransfer.VERSION).put((byte) 0);
+        MessageCodec.putVarLong(buffer, transferID);
+        MessageCodec.putVarLong(buffer, index & 0xffffffffL);
+        MessageCodec.putVarLong(buffer, count);
+        buffer.put((byte) 0);
+        byte[] data = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, data, 0, data.length);
+        return data;
+    }
+
+    /**
+     * reassemble the chunks on a new membership list of the joining node
+     */
+    private MembershipStore reassemble(List<byte[]> chunks) {
+        JoinTransfer.Receiver receiver = new JoinTransfer.Receiver();
+        //out of order, the last chunk first
+        for (int i = chunks.size() - 1; i >= 0; i--) {
+            assertTrue(receiver.accept(packet(chunks.get(i))));
+        }
+        assertTrue(receiver.isComplete());
+        MembershipStore joiner = new MembershipStore(JOINER, 1);
+        assertTrue(receiver.readInto(joiner, new MessageCodec()));
+        return joiner;
+    }
+
+    @Test
+    void listRoundTrip() {
+        for (boolean compress : new boolean[]{false, true}) {
+            List<byte[]> chunks = JoinTransfer.encode(introducer, 17, compress);
+            for (byte[] chunk : chunks) {
+                assertTrue(chunk.length <= JoinTransfer.MAX_CHUNK_SIZE);
+            }
+            MembershipStore joiner = reassemble(chunks);
+            MembershipStore.Snapshot expected = introducer.snapshot();
+            assertArrayEquals(expected.IDs, joiner.snapshot().IDs);
+            for (int i = 0; i < expected.IDs.length; i++) {
+                int slot = joiner.slotOf(expected.IDs[i]);
+                assertEquals(introducer.counter(expected.slots[i]), joiner.counter(slot));
+                assertEquals(introducer.incarnation(expected.slots[i]), joiner.incarnation(slot));
+            }
+        }
+    }
+
+    @Test
+    void compressionShrinksTheList() {
+        assertTrue(JoinTransfer.encode(introducer, 1, true).size() < JoinTransfer.encode(introducer, 1, false).size());
+    }
+
+    @Test
+    void chunksOfOtherTransfersAreIgnored() {
+        List<byte[]> chunks = JoinTransfer.encode(introducer, 1, false);
+        List<byte[]> other = JoinTransfer.encode(introducer, 2, false);
+        JoinTransfer.Receiver receiver = new JoinTransfer.Receiver();
+        assertTrue(receiver.accept(packet(chunks.get(0))));
+        assertEquals(1, receiver.transferID());
+        assertFalse(receiver.accept(packet(other.get(1))));
+    }
+
+    @Test
+    void malformedChunksAreRejected() {
+        JoinTransfer.Receiver receiver = new JoinTransfer.Receiver();
+        assertFalse(receiver.accept(packet(chunk(5, -1, 3))));
+        assertFalse(receiver.accept(packet(chunk(5, 3, 3))));
+        assertFalse(receiver.accept(packet(chunk(5, 0, JoinTransfer.MAX_CHUNK_COUNT + 1))));
+        assertFalse(receiver.accept(packet(new byte[]{JoinTransfer.VERSION, 0})));
+        assertFalse(receiver.accept(packet(new byte[]{JoinTransfer.VERSION + 1, 0, 0, 0, 1, 0})));
+        assertFalse(receiver.isStarted());
+
+        //a resend request is never taken as the first chunk
+        byte[] resend = JoinTransfer.encodeResend(5, new int[]{0}, 1);
+        assertTrue(JoinTransfer.isResend(resend, resend.length));
+        assertFalse(receiver.accept(packet(resend)));
+        assertFalse(receiver.isStarted());
+    }
+
+    @Test
+    void missingChunksAreListed() {
+        List<byte[]> chunks = JoinTransfer.encode(introducer, 3, false);
+        assertTrue(chunks.size() > 4);
+        JoinTransfer.Receiver receiver = new JoinTransfer.Receiver();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (i != 1 && i != 3) {
+                receiver.accept(packet(chunks.get(i)));
+            }
+        }
+        assertFalse(receiver.isComplete());
+        int[] missing = new int[JoinTransfer.MAX_RESEND_INDICES];
+        assertEquals(2, receiver.missing(missing));
+        assertEquals(1, missing[0]);
+        assertEquals(3, missing[1]);
+
+        receiver.accept(packet(chunks.get(1)));
+        receiver.accept(packet(chunks.get(3)));
+        assertTrue(receiver.isComplete());
+    }
+
+    @Test
+    void redirectRoundTrip() {
+        NodeId[] delegates = {NodeId.of(1500000001L, 1, 0x0A000001, 10101), NodeId.of(1500000002L, 2, 0x0A000002, 10102)};
+        List<byte[]> chunks = JoinTransfer.encodeRedirect(delegates, 9);
+        JoinTransfer.Receiver receiver = new JoinTransfer.Receiver();
+        for (byte[] chunk : chunks) {
+            assertTrue(receiver.accept(packet(chunk)));
+        }
+        assertTrue(receiver.isRedirect());
+        assertArrayEquals(delegates, receiver.readRedirect(new MessageCodec()));
+    }
+}
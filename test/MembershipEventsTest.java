@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**coalescing of the changes of a member within one batch, see MembershipEvents
+ */
+class MembershipEventsTest {
+    private static final NodeId SELF = node(0);
+    //the dispatcher is asynchronous, a test waits at most this long for a batch
+    private static final long DELIVERY_TIMEOUT = 5000;
+
+    private final BlockingQueue<List<MembershipEvents.Event>> batches = new LinkedBlockingQueue<>();
+    private MembershipEvents events;
+    private MembershipStore membership;
+
+    private static NodeId node(int i) {
+        return NodeId.of(1500000000L + i, i, 0x0A000000 + i, 10100);
+    }
+
+    @BeforeEach
+    void setUp() {
+        Daemon.clock = System::currentTimeMillis;
+        Daemon.ID = SELF;
+        membership = new MembershipStore(SELF, 1);
+        Daemon.membership = membership;
+        membership.add(SELF, 1, 0, 0);
+        membership.add(node(1), 1, 0, 0);
+        membership.add(node(2), 1, 0, 0);
+        //changes published within the batch delay are delivered as one batch
+        events = new MembershipEvents(16, 200);
+        events.subscribe(batches::add);
+    }
+
+    private List<MembershipEvents.Event> nextBatch() throws InterruptedException {
+        List<MembershipEvents.Event> batch = batches.poll(DELIVERY_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertNotNull(batch);
+        return batch;
+    }
+
+    private static void assertEvent(MembershipEvents.Type type, NodeId ID, MembershipEvents.Event event) {
+        assertEquals(type, event.type);
+        assertEquals(ID, event.ID);
+    }
+
+    @Test
+    void suspectedThenAliveIsNotDelivered() throws InterruptedException {
+        events.publish("SUSPECT", node(1));
+        events.publish("SUSPECT CLEARED", node(1));
+        events.publish("SUSPECT", node(2));
+        List<MembershipEvents.Event> batch = nextBatch();
+        assertEquals(1, batch.size());
+        assertEvent(MembershipEvents.Type.SUSPECTED, node(2), batch.get(0));
+    }
+
+    @Test
+    void joinedThenFailedIsNotDelivered() throws InterruptedException {
+        events.publish("GOSSIP ADD", node(1));
+        events.publish("SUSPECT REMOVE", node(1));
+        events.publish("GOSSIP LEAVE", node(2));
+        List<MembershipEvents.Event> batch = nextBatch();
+        assertEquals(1, batch.size());
+        assertEvent(MembershipEvents.Type.LEFT, node(2), batch.get(0));
+    }
+
+    @Test
+    void memberThatCameBackIsDeliveredAlive() throws InterruptedException {
+        events.publish("SUSPECT", node(1));
+        events.publish("SUSPECT REMOVE", node(1));
+        events.publish("GOSSIP ADD", node(1));
+        events.publish("REFUTED", node(1));
+        List<MembershipEvents.Event> batch = nextBatch();
+        assertEquals(1, batch.size());
+        assertEvent(MembershipEvents.Type.ALIVE, node(1), batch.get(0));
+    }
+
+    @Test
+    void joinedMemberIsDeliveredJoined() throws InterruptedException {
+        events.publish("GOSSIP ADD", node(1));
+        events.publish("SUSPECT", node(1));
+        membership.add(node(1), 2, 1, 0);
+        events.publish("REFUTED", node(1));
+        List<MembershipEvents.Event> batch = nextBatch();
+        assertEquals(1, batch.size());
+        assertEvent(MembershipEvents.Type.JOINED, node(1), batch.get(0));
+        assertEquals(1, batch.get(0).incarnation);
+    }
+
+    @Test
+    void sequenceNumbersFollowEachOther() throws InterruptedException {
+        long last = events.lastSequence();
+        events.publish("GOSSIP ADD", node(1));
+        events.publish("SUSPECT", node(2));
+        List<MembershipEvents.Event> batch = nextBatch();
+        assertEquals(2, batch.size());
+        assertEquals(last + 1, batch.get(0).sequence);
+        assertEquals(last + 2, batch.get(1).sequence);
+        assertEquals(last + 2, events.lastSequence());
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**writing and loading the membership list kept on disk, see MembershipSnapshot
+ */
+class MembershipSnapshotTest {
+    private static final NodeId SELF = node(0);
+    //the writer thread is asynchronous, a test waits at most this long for it
+    private static final long WRITE_TIMEOUT = 5000;
+
+    @TempDir
+    Path directory;
+
+    private long now = 1000;
+    private MembershipStore membership;
+    private Path path;
+
+    private static NodeId node(int i) {
+        return NodeId.of(1500000000L + i, i, 0x0A000000 + i, 10100);
+    }
+
+    @BeforeEach
+    void setUp() {
+        Daemon.clock = () -> now;
+        Daemon.ID = SELF;
+        Daemon.timers = new TimerWheel(10, 64);
+        membership = new MembershipStore(SELF, 1);
+        Daemon.membership = membership;
+        membership.add(SELF, 42, 3, now);
+        for (int i = 1; i <= 100; i++) {
+            membership.add(node(i), i * 10, i % 4, now);
+        }
+        path = directory.resolve("membership.snapshot");
+    }
+
+    /**
+     * run Daemon.timers once, then wait for the writer to write a list of the given size
+     */
+    private MembershipSnapshot.Loaded writeAndLoad(int members) throws InterruptedException {
+        now += 10;
+        Daemon.timers.advance(now);
+        long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            MembershipSnapshot.Loaded loaded = MembershipSnapshot.load(path, new MessageCodec());
+            if (loaded != null && loaded.IDs.length == members) {
+                return loaded;
+            }
+            Thread.sleep(10);
+        }
+        return MembershipSnapshot.load(path, new MessageCodec());
+    }
+
+    @Test
+    void restoresTheMembershipList() throws InterruptedException {
+        MembershipSnapshot snapshot = new MembershipSnapshot(path);
+        snapshot.start(10);
+        MembershipSnapshot.Loaded loaded = writeAndLoad(100);
+        assertNotNull(loaded);
+        assertEquals(SELF, loaded.self);
+        assertEquals(4, loaded.incarnation);
+        //the restarted node continues above the reserved counter
+        assertTrue(loaded.counter >= 42 + MembershipSnapshot.COUNTER_RESERVATION);
+        assertEquals(100, loaded.IDs.length);
+        for (int i = 0; i < loaded.IDs.length; i++) {
+            int slot = membership.slotOf(loaded.IDs[i]);
+            assertEquals(membership.counter(slot), loaded.counters[i]);
+            assertEquals(membership.incarnation(slot), loaded.incarnations[i]);
+        }
+        snapshot.delete();
+    }
+
+    @Test
+    void appendsAddsAndRemovals() throws InterruptedException {
+        MembershipSnapshot snapshot = new MembershipSnapshot(path);
+        snapshot.start(10);
+        assertNotNull(writeAndLoad(100));
+        for (int i = 1; i <= 10; i++) {
+            membership.remove(node(i), 0, Long.MAX_VALUE);
+        }
+        membership.add(node(500), 5, 0, now);
+        MembershipSnapshot.Loaded loaded = writeAndLoad(91);
+        assertEquals(91, loaded.IDs.length);
+        NodeId[] expected = new NodeId[91];
+        int count = 0;
+        for (NodeId ID : membership.snapshot().IDs) {
+            if (!ID.equals(SELF)) {
+                expected[count++] = ID;
+            }
+        }
+        NodeId[] IDs = loaded.IDs.clone();
+        Arrays.sort(IDs);
+        assertArrayEquals(expected, IDs);
+        snapshot.delete();
+    }
+
+    @Test
+    void tornTailIsDropped() throws InterruptedException, IOException {
+        MembershipSnapshot snapshot = new MembershipSnapshot(path);
+        snapshot.start(10);
+        assertNotNull(writeAndLoad(100));
+        Path copy = directory.resolve("copy.snapshot");
+        Files.copy(path, copy);
+        snapshot.delete();
+        assertFalse(Files.exists(path));
+
+        long size = Files.size(copy);
+        try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 2);
+        }
+        MembershipSnapshot.Loaded loaded = MembershipSnapshot.load(copy, new MessageCodec());
+        assertNotNull(loaded);
+        assertEquals(99, loaded.IDs.length);
+    }
+
+    @Test
+    void missingOrForeignFileLoadsNothing() throws IOException {
+        assertNull(MembershipSnapshot.load(directory.resolve("none"), new MessageCodec()));
+        Path foreign = directory.resolve("foreign");
+        Files.write(foreign, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertNull(MembershipSnapshot.load(foreign, new MessageCodec()));
+    }
+}
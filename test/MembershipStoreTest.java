@@ -0,0 +1,191 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**slots, snapshots, neighbours, incarnations and tombstones of MembershipStore
+ */
+class MembershipStoreTest {
+    private static final NodeId SELF = node(5);
+
+    private long now = 1000;
+    private MembershipStore membership;
+
+    private static NodeId node(int i) {
+        return NodeId.of(1500000000L + i, i, 0x0A000000 + i, 10100);
+    }
+
+    @BeforeEach
+    void setUp() {
+        Daemon.clock = () -> now;
+        Daemon.ID = SELF;
+        membership = new MembershipStore(SELF, 1);
+        Daemon.membership = membership;
+        membership.add(SELF, 1, 0, now);
+    }
+
+    @Test
+    void heartbeatRaisesCounterOnly() {
+        membership.add(node(1), 10, 0, now);
+        now += 100;
+        assertEquals(MembershipStore.HeartbeatResult.UPDATED, membership.heartbeat(node(1), 11, now));
+        int slot = membership.slotOf(node(1));
+        assertEquals(11, membership.counter(slot));
+        assertEquals(now, membership.lastSeen(slot));
+
+        long seen = now;
+        now += 100;
+        assertEquals(MembershipStore.HeartbeatResult.STALE, membership.heartbeat(node(1), 11, now));
+        assertEquals(MembershipStore.HeartbeatResult.STALE, membership.heartbeat(node(1), 3, now));
+        assertEquals(11, membership.counter(slot));
+        assertEquals(seen, membership.lastSeen(slot));
+        assertEquals(MembershipStore.HeartbeatResult.UNKNOWN, membership.heartbeat(node(2), 1, now));
+    }
+
+    @Test
+    void snapshotIsSortedAndVersioned() {
+        long version = membership.snapshot().version;
+        membership.add(node(9), 1, 0, now);
+        membership.add(node(2), 1, 0, now);
+        assertFalse(membership.add(node(2), 5, 0, now));
+        MembershipStore.Snapshot snapshot = membership.snapshot();
+        assertEquals(version + 2, snapshot.version);
+        assertArrayEquals(new NodeId[]{node(2), SELF, node(9)}, snapshot.IDs);
+        for (int i = 0; i < snapshot.IDs.length; i++) {
+            assertEquals(membership.slotOf(snapshot.IDs[i]), snapshot.slots[i]);
+        }
+        //adding a member again raises its counter like a heartbeat
+        assertEquals(5, membership.counter(membership.slotOf(node(2))));
+    }
+
+    @Test
+    void neighboursAreTheClosestMembersInTheRing() {
+        for (int i = 1; i <= 9; i++) {
+            membership.add(node(i), 1, 0, now);
+        }
+        MembershipStore.Snapshot snapshot = membership.snapshot();
+        assertEquals(2, snapshot.neighbourIDs.length);
+        assertTrue(snapshot.isNeighbour(node(4)));
+        assertTrue(snapshot.isNeighbour(node(6)));
+
+        membership.remove(node(6), 1, 0);
+        assertTrue(membership.snapshot().isNeighbour(node(7)));
+        assertFalse(membership.snapshot().isNeighbour(node(6)));
+    }
+
+    @Test
+    void findReturnsTheMemberInstance() {
+        NodeId member = node(3);
+        membership.add(member, 1, 0, now);
+        assertSame(member, membership.find(member.second, member.nano, member.address, member.port));
+        assertNull(membership.find(1, 2, 3, 4));
+    }
+
+    @Test
+    void removedMemberComesBackOnlyWithHigherIncarnation() {
+        membership.add(node(1), 10, 2, now);
+        assertFalse(membership.remove(node(1), 10, 1));
+        assertTrue(membership.remove(node(1), 12, 2));
+        assertEquals(-1, membership.slotOf(node(1)));
+        assertEquals(2, membership.tombstone(node(1)));
+        assertEquals(12, membership.tombstones().get(node(1))[0]);
+
+        assertFalse(membership.add(node(1), 20, 2, now));
+        assertTrue(membership.add(node(1), 20, 3, now));
+        assertEquals(-1, membership.tombstone(node(1)));
+
+        //tombstones expire
+        assertTrue(membership.remove(node(1), 20, 3));
+        now += MembershipStore.TOMBSTONE_TIMEOUT;
+        assertTrue(membership.add(node(1), 1, 0, now));
+    }
+
+    @Test
+    void lateListDoesNotBringBackRemovedMembers() {
+        membership.add(node(1), 10, 2, now);
+        membership.add(node(2), 10, 0, now);
+        assertTrue(membership.remove(node(1), 10, 2));
+        assertTrue(membership.remove(node(2), 10, 0));
+
+        //a membership list encoded before the removals, and one with a newer incarnation of node(2)
+        membership.addAll(new NodeId[]{node(1), node(2), node(3)}, new long[]{11, 11, 1}, new long[]{2, 1, 0}, now);
+        assertEquals(-1, membership.slotOf(node(1)));
+        assertEquals(2, membership.tombstone(node(1)));
+        assertTrue(membership.slotOf(node(2)) >= 0);
+        assertEquals(-1, membership.tombstone(node(2)));
+        assertTrue(membership.slotOf(node(3)) >= 0);
+
+        now += MembershipStore.TOMBSTONE_TIMEOUT;
+        membership.addAll(new NodeId[]{node(1)}, new long[]{11}, new long[]{2}, now);
+        assertTrue(membership.slotOf(node(1)) >= 0);
+    }
+
+    @Test
+    void selfIsNeverRemoved() {
+        assertFalse(membership.remove(SELF, 1, Long.MAX_VALUE));
+        assertFalse(membership.suspect(SELF, Long.MAX_VALUE));
+        assertTrue(membership.slotOf(SELF) >= 0);
+    }
+
+    @Test
+    void suspicionFollowsIncarnation() {
+        membership.add(node(1), 1, 3, now);
+        int slot = membership.slotOf(node(1));
+        long changes = membership.stateChanges();
+        assertFalse(membership.suspect(node(1), 2));
+        assertTrue(membership.suspect(node(1), 3));
+        assertFalse(membership.suspect(node(1), 3));
+        assertEquals(MembershipStore.SUSPECT, membership.status(slot));
+        assertTrue(membership.stateChanges() > changes);
+
+        //a refutation clears the suspicion and counts as a sign of life
+        now += 500;
+        assertFalse(membership.raiseIncarnation(node(1), 3));
+        assertTrue(membership.raiseIncarnation(node(1), 4));
+        assertEquals(MembershipStore.ALIVE, membership.status(slot));
+        assertEquals(4, membership.incarnation(slot));
+        assertEquals(now, membership.lastSeen(slot));
+
+        assertTrue(membership.suspect(node(1), 4));
+        assertTrue(membership.clearSuspect(node(1)));
+        assertFalse(membership.clearSuspect(node(1)));
+        assertEquals(4, membership.incarnation(slot));
+    }
+
+    @Test
+    void reusedSlotBelongsToTheNewMember() {
+        membership.add(node(1), 100, 0, now);
+        int slot = membership.slotOf(node(1));
+        assertTrue(membership.remove(node(1), 100, 0));
+        membership.add(node(2), 7, 0, now);
+        assertEquals(slot, membership.slotOf(node(2)));
+        assertEquals(7, membership.counter(slot));
+        assertEquals(MembershipStore.ALIVE, membership.status(slot));
+
+        //heartbeats of the removed member don't reach the new owner of the slot
+        assertEquals(MembershipStore.HeartbeatResult.UNKNOWN, membership.heartbeat(node(1), 1000, now));
+        assertEquals(7, membership.counter(slot));
+    }
+
+    @Test
+    void slotsGrowPastOneSegment() {
+        NodeId[] IDs = new NodeId[3000];
+        for (int i = 0; i < IDs.length; i++) {
+            IDs[i] = NodeId.of(1600000000L + i, i, 0x0B000000 + i, 10100);
+        }
+        long[] counters = new long[IDs.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = i + 1;
+        }
+        membership.addAll(IDs, counters, new long[IDs.length], now);
+        assertEquals(IDs.length + 1, membership.size());
+        for (int i = 0; i < IDs.length; i++) {
+            assertEquals(i + 1, membership.counter(membership.slotOf(IDs[i])));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**round trips of the binary wire format, see MessageCodec
+ */
+class MessageCodecTest {
+    private static final NodeId SELF = NodeId.of(1500000000L, 0, 0x0A000001, 10100);
+    private static final NodeId OTHER = NodeId.of(1500000001L, 999999999, 0xC0A80102, 65535);
+
+    private final MessageCodec sender = new MessageCodec();
+    private final MessageCodec receiver = new MessageCodec();
+
+    @BeforeEach
+    void setUp() {
+        Daemon.membership = null;
+    }
+
+    /**
+     * copy of the encoded message, the send buffer is reused
+     */
+    private static ByteBuffer copy(ByteBuffer message) {
+        ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+        copy.put(message).flip();
+        return copy;
+    }
+
+    @Test
+    void heartbeatRoundTrip() {
+        ByteBuffer message = copy(sender.encodeHeartBeat(OTHER, 123456789L, 7));
+        assertTrue(receiver.decode(message));
+        assertEquals(MessageCodec.TYPE_HEARTBEAT, receiver.type);
+        assertEquals(Action.HEARTBEAT, receiver.action);
+        assertEquals(OTHER, receiver.ID);
+        assertEquals(123456789L, receiver.counter);
+        assertEquals(7, receiver.incarnation);
+        assertEquals(0, receiver.TTL);
+        assertNull(receiver.origin);
+        assertFalse(receiver.hasNextUpdate());
+    }
+
+    @Test
+    void gossipWithUpdatesRoundTrip() {
+        sender.begin(MessageCodec.TYPE_GOSSIP, SELF, Action.SUSPECT, 5, 1, 3);
+        assertTrue(sender.putUpdate(OTHER, Action.REMOVE, Long.MAX_VALUE, 2, 4));
+        assertTrue(sender.putUpdate(OTHER, Action.ADD, 9, 0, 1, SELF, 1700000000000L, 2));
+        ByteBuffer message = copy(sender.finish());
+
+        assertTrue(receiver.decode(message));
+        assertEquals(MessageCodec.TYPE_GOSSIP, receiver.type);
+        assertEquals(Action.SUSPECT, receiver.action);
+        assertEquals(SELF, receiver.ID);
+        assertEquals(3, receiver.TTL);
+
+        assertTrue(receiver.hasNextUpdate());
+        assertTrue(receiver.nextUpdate(message));
+        assertEquals(Action.REMOVE, receiver.action);
+        assertEquals(Long.MAX_VALUE, receiver.counter);
+        assertEquals(2, receiver.incarnation);
+        assertEquals(4, receiver.TTL);
+        assertNull(receiver.origin);
+
+        assertTrue(receiver.nextUpdate(message));
+        assertEquals(Action.ADD, receiver.action);
+        assertEquals(OTHER, receiver.ID);
+        assertEquals(SELF, receiver.origin);
+        assertEquals(1700000000000L, receiver.originTime);
+        assertEquals(2, receiver.hops);
+        assertFalse(receiver.hasNextUpdate());
+    }
+
+    @Test
+    void probeCarriesSubject() {
+        sender.beginProbe(MessageCodec.TYPE_PING_REQ, SELF, 42, OTHER);
+        ByteBuffer message = copy(sender.finish());
+        assertTrue(receiver.decode(message));
+        assertEquals(MessageCodec.TYPE_PING_REQ, receiver.type);
+        assertEquals(42, receiver.counter);
+        assertEquals(OTHER, receiver.subject);
+    }
+
+    @Test
+    void syncCarriesDigest() {
+        int[] digest = new int[AntiEntropy.BUCKETS];
+        for (int i = 0; i < digest.length; i++) {
+            digest[i] = i * 0x9E3779B9;
+        }
+        ByteBuffer message = copy(sender.encodeSync(SELF, true, digest));
+        assertTrue(receiver.decode(message));
+        assertEquals(MessageCodec.TYPE_SYNC, receiver.type);
+        assertEquals(1, receiver.counter);
+        for (int i = 0; i < digest.length; i++) {
+            assertEquals(digest[i], receiver.digest[i]);
+        }
+    }
+
+    @Test
+    void malformedMessagesAreRejected() {
+        ByteBuffer message = copy(sender.encodeHeartBeat(OTHER, 1, 0));
+        ByteBuffer truncated = ByteBuffer.wrap(message.array(), 0, message.remaining() - 3);
+        assertFalse(receiver.decode(truncated));
+
+        ByteBuffer wrongVersion = copy(sender.encodeHeartBeat(OTHER, 1, 0));
+        wrongVersion.put(0, (byte) (MessageCodec.VERSION + 1));
+        assertFalse(receiver.decode(wrongVersion));
+
+        ByteBuffer unknownType = copy(sender.encodeHeartBeat(OTHER, 1, 0));
+        unknownType.put(1, (byte) 100);
+        assertFalse(receiver.decode(unknownType));
+    }
+
+    @Test
+    void nanoOutOfRangeIsRejected() {
+        for (long nano : new long[]{1_000_000_000L, 0xFFFFFFFFL, Long.MAX_VALUE}) {
+            ByteBuffer message = ByteBuffer.allocate(64);
+            message.put(MessageCodec.VERSION).put(MessageCodec.TYPE_HEARTBEAT);
+            message.put((byte) Action.HEARTBEAT.ordinal()).put((byte) 0);
+            MessageCodec.putVarLong(message, 1);
+            MessageCodec.putVarLong(message, 0);
+            MessageCodec.putVarLong(message, 1500000000L);
+            MessageCodec.putVarLong(message, nano);
+            message.putInt(0x0A000001).putShort((short) 10100).put((byte) 0);
+            message.flip();
+            assertFalse(receiver.decode(message));
+        }
+    }
+
+    @Test
+    void varLongRoundTrip() {
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, 1L << 42, Long.MAX_VALUE, -1};
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 10);
+        for (long value : values) {
+            MessageCodec.putVarLong(buffer, value);
+        }
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, MessageCodec.getVarLong(buffer));
+        }
+        ByteBuffer tooLong = ByteBuffer.allocate(11);
+        for (int i = 0; i < 11; i++) {
+            tooLong.put((byte) 0x80);
+        }
+        tooLong.flip();
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.getVarLong(tooLong));
+    }
+
+    @Test
+    void decodedIDsAreReused() {
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.MAX_ID_SIZE);
+        MessageCodec.putID(buffer, OTHER);
+        buffer.flip();
+        NodeId first = receiver.getID(buffer);
+        buffer.rewind();
+        assertSame(first, receiver.getID(buffer));
+        assertEquals(OTHER, first);
+    }
+
+    @Test
+    void decodedIDsOfMembersAreTheMemberInstances() {
+        MembershipStore membership = new MembershipStore(SELF, 1);
+        Daemon.membership = membership;
+        NodeId[] members = new NodeId[5000];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = NodeId.of(1500000000L + i, i, 0x0A000000 + i, 10100);
+        }
+        membership.addAll(members, new long[members.length], new long[members.length], 0);
+
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.MAX_ID_SIZE);
+        for (NodeId member : members) {
+            buffer.clear();
+            MessageCodec.putID(buffer, member);
+            buffer.flip();
+            assertSame(member, receiver.getID(buffer));
+        }
+    }
+}